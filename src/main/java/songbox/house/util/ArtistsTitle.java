@@ -1,23 +1,23 @@
 package songbox.house.util;
 
 import lombok.extern.slf4j.Slf4j;
-
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import songbox.house.util.compare.NormalizedWords;
 
 import static java.util.Optional.ofNullable;
-import static java.util.regex.Pattern.compile;
-import static org.apache.logging.log4j.util.Strings.isNotBlank;
 
 @Slf4j
 public class ArtistsTitle {
 
-    private static final Pattern ARTIST_TITLE_REGEX = compile("^((\\W*\\s*)|(#\\d*;?.?))?" +
-            "(?<artists>[A-Z].*)(\\s*)( - )(\\s*)(?<title>.*)$");
+    private static final String SEPARATOR = " - ";
+    private static final long NO_MATCH = -1L;
 
     private String artists;
     private String title;
 
+    // Computed on first comparison and dropped by setters
+    private volatile NormalizedWords normalizedArtists;
+    private volatile NormalizedWords normalizedTitle;
+
     public ArtistsTitle() {
     }
 
@@ -45,45 +45,227 @@ public class ArtistsTitle {
 
     public void setArtists(String artists) {
         this.artists = artists;
+        this.normalizedArtists = null;
     }
 
     public void setTitle(String title) {
         this.title = title;
+        this.normalizedTitle = null;
+    }
+
+    /**
+     * Artists split into lowercased words the way {@link songbox.house.util.compare.LevenshteinDistanceComparator}
+     * compares them. Computed once and shared by all comparisons, it can't be changed outside of the compare package.
+     *
+     * @return normalized artists or null if there are no artists
+     */
+    public NormalizedWords normalizedArtists() {
+        NormalizedWords words = normalizedArtists;
+        if (words == null && artists != null) {
+            words = NormalizedWords.of(artists);
+            normalizedArtists = words;
+        }
+        return words;
+    }
+
+    /**
+     * Same as {@link #normalizedArtists()} for title
+     */
+    public NormalizedWords normalizedTitle() {
+        NormalizedWords words = normalizedTitle;
+        if (words == null && title != null) {
+            words = NormalizedWords.of(title);
+            normalizedTitle = words;
+        }
+        return words;
     }
 
+    /**
+     * Parses "artists - title" string, e.g. "#12; Artist A, Artist B - Title (Original Mix)". Artists start with
+     * the first capital latin letter after optional prefix of non-word chars or "#12;" like numbering, title is
+     * everything after the last " - ". Strings which don't match are split by the first '-' or by a single space.
+     * <p>
+     * Hand-written scanner with the same results as regex
+     * {@code ^((\W*\s*)|(#\d*;?.?))?(?<artists>[A-Z].*)(\s*)( - )(\s*)(?<title>.*)$}, only final fields are
+     * allocated.
+     */
     public static ArtistsTitle parse(String artistsTitleString) {
-        Matcher matcher = ARTIST_TITLE_REGEX.matcher(artistsTitleString);
-        if (matcher.matches()) {
-            String artists = matcher.group("artists");
-            String title = matcher.group("title");
-            if (isNotBlank(artists) && isNotBlank(title)) {
-                return of(artists, title);
-            } else {
-                log.warn("Can't parse artists and title from '{}' (check regex)", artistsTitleString);
+        return scan(artistsTitleString);
+    }
+
+    public static ArtistsTitle[] parseAll(CharSequence[] artistsTitleStrings) {
+        final ArtistsTitle[] result = new ArtistsTitle[artistsTitleStrings.length];
+        for (int i = 0; i < artistsTitleStrings.length; i++) {
+            result[i] = scan(artistsTitleStrings[i]);
+        }
+        return result;
+    }
+
+    private static ArtistsTitle scan(CharSequence str) {
+        final int length = str.length();
+        int firstWordChar = length;
+        int lastLineTerminator = -1;
+        for (int i = 0; i < length; i++) {
+            final char c = str.charAt(i);
+            if (firstWordChar == length && isWordChar(c)) {
+                firstWordChar = i;
+            }
+            if (isLineTerminator(c)) {
+                lastLineTerminator = i;
             }
         }
 
-        // TODO remove if regex will work fine
-        return parseDummy(artistsTitleString);
+        // Artists after prefix of non-word chars, then after "#12;" like prefix in the order regex backtracks
+        long match = match(str, firstWordChar, lastLineTerminator);
+        if (match == NO_MATCH && length > 0 && str.charAt(0) == '#') {
+            int digitsEnd = 1;
+            while (digitsEnd < length && isDigit(str.charAt(digitsEnd))) {
+                digitsEnd++;
+            }
+            for (int i = digitsEnd; i > 0 && match == NO_MATCH; i--) {
+                if (i < length && str.charAt(i) == ';') {
+                    match = matchAfterAnyChar(str, i + 1, lastLineTerminator);
+                }
+                if (match == NO_MATCH) {
+                    match = matchAfterAnyChar(str, i, lastLineTerminator);
+                }
+            }
+        }
+
+        if (match != NO_MATCH) {
+            // Whitespaces around the separator are trimmed anyway, so artists end right at it
+            final int separator = (int) match;
+            final String title = trimmed(str, separator + SEPARATOR.length(), length);
+            if (!title.isEmpty()) {
+                return of(trimmed(str, (int) (match >>> 32), separator), title);
+            }
+            log.warn("Can't parse artists and title from '{}'", str);
+        }
+
+        return parseDummy(str);
     }
 
-    private static ArtistsTitle parseDummy(String artistsTitleString) {
-        String[] artistTitle = artistsTitleString.split("-", 2);
+    private static long matchAfterAnyChar(CharSequence str, int from, int lastLineTerminator) {
+        long match = NO_MATCH;
+        if (from < str.length() && !isLineTerminator(str.charAt(from))) {
+            match = match(str, from + 1, lastLineTerminator);
+        }
+        return match == NO_MATCH ? match(str, from, lastLineTerminator) : match;
+    }
 
-        String artists = null;
-        String title = artistsTitleString;
-        if (artistTitle.length == 2) {
-            artists = artistTitle[0].trim();
-            title = artistTitle[1].trim();
-        } else {
-            String[] splitedBySpace = artistsTitleString.split(" ");
-            if (splitedBySpace.length == 2) {
-                artists = splitedBySpace[0].trim();
-                title = splitedBySpace[1].trim();
+    /**
+     * @return artists start and the last suitable separator position packed into long, or {@link #NO_MATCH}
+     */
+    private static long match(CharSequence str, int artistsStart, int lastLineTerminator) {
+        final int length = str.length();
+        if (artistsStart >= length || !isCapitalLetter(str.charAt(artistsStart))) {
+            return NO_MATCH;
+        }
+        // Artists can't contain line terminators, only whitespaces before the separator can
+        int artistsLimit = artistsStart + 1;
+        while (artistsLimit < length && !isLineTerminator(str.charAt(artistsLimit))) {
+            artistsLimit++;
+        }
+
+        for (int separator = length - SEPARATOR.length(); separator > artistsStart; separator--) {
+            if (isSeparator(str, separator)
+                    && isWhitespaces(str, artistsLimit, separator)
+                    && skipWhitespaces(str, separator + SEPARATOR.length()) > lastLineTerminator) {
+                return ((long) artistsStart << 32) | separator;
             }
         }
+        return NO_MATCH;
+    }
+
+    private static ArtistsTitle parseDummy(CharSequence str) {
+        final int length = str.length();
+        for (int i = 0; i < length; i++) {
+            if (str.charAt(i) == '-') {
+                return of(trimmed(str, 0, i), trimmed(str, i + 1, length));
+            }
+        }
+
+        // Same as split(" ") giving exactly two words: the only space is before the last non-space char
+        int lastNonSpace = length - 1;
+        while (lastNonSpace >= 0 && str.charAt(lastNonSpace) == ' ') {
+            lastNonSpace--;
+        }
+        int space = -1;
+        for (int i = 0; i < lastNonSpace; i++) {
+            if (str.charAt(i) == ' ') {
+                if (space >= 0) {
+                    space = -1;
+                    break;
+                }
+                space = i;
+            }
+        }
+        if (space >= 0) {
+            return of(trimmed(str, 0, space), trimmed(str, space + 1, lastNonSpace + 1));
+        }
+
+        return of(null, trimmed(str, 0, length));
+    }
+
+    private static boolean isSeparator(CharSequence str, int position) {
+        for (int i = 0; i < SEPARATOR.length(); i++) {
+            if (str.charAt(position + i) != SEPARATOR.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isWhitespaces(CharSequence str, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (!isWhitespace(str.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int skipWhitespaces(CharSequence str, int from) {
+        int i = from;
+        while (i < str.length() && isWhitespace(str.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Same as {@code str.subSequence(from, to).toString().trim()}, but allocates only the result
+     */
+    private static String trimmed(CharSequence str, int from, int to) {
+        while (from < to && str.charAt(from) <= ' ') {
+            from++;
+        }
+        while (to > from && str.charAt(to - 1) <= ' ') {
+            to--;
+        }
+        return str.subSequence(from, to).toString();
+    }
+
+    // Regex \w, \d and \s are ASCII only, '.' doesn't match line terminators
+
+    private static boolean isWordChar(char c) {
+        return c >= 'a' && c <= 'z' || isCapitalLetter(c) || isDigit(c) || c == '_';
+    }
+
+    private static boolean isCapitalLetter(char c) {
+        return c >= 'A' && c <= 'Z';
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
 
-        return of(artists, title);
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
     }
 
     private String safeTrim(String str) {
@@ -0,0 +1,112 @@
+package songbox.house.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded LRU cache of {@link ArtistsTitle#parse(String)} results keyed by the raw string. Artists are interned
+ * with {@link WeakInterner}, so the same artists scraped from many pages are kept in heap once.
+ * <p>
+ * {@link ArtistsTitle} is mutable, so parsed strings are cached and every call returns a new instance. Thread-safe,
+ * entries are split between independently locked LRU segments.
+ */
+public final class ArtistsTitleParseCache {
+
+    private static final int MAX_SEGMENTS = 16;
+
+    private final WeakInterner<String> artistsInterner = new WeakInterner<>();
+    private final Segment[] segments;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param maxSize max number of cached strings, small caches get fewer segments so each keeps at least one
+     */
+    public ArtistsTitleParseCache(int maxSize) {
+        // Power of two, so a segment is selected by a mask
+        segments = new Segment[Integer.highestOneBit(Math.max(1, Math.min(MAX_SEGMENTS, maxSize)))];
+        final int segmentMaxSize = Math.max(0, maxSize) / segments.length;
+        final int remainder = Math.max(0, maxSize) % segments.length;
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment(i < remainder ? segmentMaxSize + 1 : segmentMaxSize);
+        }
+    }
+
+    public ArtistsTitle parse(String artistsTitleString) {
+        final Segment segment = segment(artistsTitleString);
+        Pair<String, String> parsed;
+        synchronized (segment) {
+            parsed = segment.get(artistsTitleString);
+        }
+        if (parsed != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+            final ArtistsTitle artistsTitle = ArtistsTitle.parse(artistsTitleString);
+            parsed = Pair.of(artistsInterner.intern(artistsTitle.getArtists()), artistsTitle.getTitle());
+            synchronized (segment) {
+                segment.put(artistsTitleString, parsed);
+            }
+        }
+        // Strings are already trimmed, so constructor doesn't copy them
+        return ArtistsTitle.of(parsed.getLeft(), parsed.getRight());
+    }
+
+    public String internArtists(String artists) {
+        return artistsInterner.intern(artists);
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public double getHitRate() {
+        final long hitCount = hits.sum();
+        final long total = hitCount + misses.sum();
+        return total == 0 ? 0. : (double) hitCount / total;
+    }
+
+    public void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    private Segment segment(String key) {
+        final int hash = key.hashCode();
+        return segments[(hash ^ (hash >>> 16)) & (segments.length - 1)];
+    }
+
+    private static final class Segment extends LinkedHashMap<String, Pair<String, String>> {
+        private static final long serialVersionUID = 1L;
+
+        private final int maxSize;
+
+        private Segment(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Pair<String, String>> eldest) {
+            return size() > maxSize;
+        }
+    }
+}
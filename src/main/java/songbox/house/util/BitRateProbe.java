@@ -0,0 +1,266 @@
+package songbox.house.util;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.net.Proxy;
+import java.util.Optional;
+
+import static java.util.Optional.empty;
+import static java.util.Optional.of;
+
+/**
+ * Reads bitrate and duration of an MP3 file from the first kilobytes of it instead of dividing the whole size by
+ * duration like {@link BitRateCalculator} does. ID3v2 tag is skipped, first MPEG audio frame header gives bitrate
+ * of CBR files, Xing/Info or VBRI header in it gives number of frames and bytes of VBR files.
+ * <p>
+ * File length is requested separately only for files without Xing/Info/VBRI header, to know their duration, and for
+ * VBR headers without number of bytes, to know average bitrate.
+ */
+@Slf4j
+public final class BitRateProbe {
+
+    static final int PROBE_SIZE = 16 * 1024;
+
+    private static final int ID3_HEADER_SIZE = 10;
+
+    // MPEG 1 and MPEG 2/2.5, layers I, II and III, bitrate index
+    private static final int[][][] BIT_RATES = {
+            {
+                    {0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448},
+                    {0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384},
+                    {0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320}
+            },
+            {
+                    {0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256},
+                    {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160},
+                    {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160}
+            }
+    };
+
+    // MPEG 2.5, reserved, MPEG 2, MPEG 1 by version bits
+    private static final int[][] SAMPLE_RATES = {
+            {11025, 12000, 8000},
+            {},
+            {22050, 24000, 16000},
+            {44100, 48000, 32000}
+    };
+
+    private BitRateProbe() {
+    }
+
+    public static Optional<Mp3Info> probe(String url, Proxy proxy) {
+        final Optional<byte[]> head = DownloadUtil.downloadRange(url, proxy, 0, PROBE_SIZE - 1);
+        if (!head.isPresent()) {
+            return empty();
+        }
+
+        byte[] bytes = head.get();
+        final long audioStart = audioStart(bytes);
+        int from = (int) audioStart;
+        if (bytes.length == PROBE_SIZE && audioStart + PROBE_SIZE / 2 > bytes.length) {
+            // Big tag, e.g. with cover image: frames are read after it
+            final Optional<byte[]> frames = DownloadUtil.downloadRange(url, proxy, audioStart,
+                    audioStart + PROBE_SIZE - 1);
+            if (!frames.isPresent()) {
+                return empty();
+            }
+            bytes = frames.get();
+            from = 0;
+        }
+
+        final Optional<Mp3Info> info = parse(bytes, from, -1);
+        if (info.isPresent() && (info.get().getBitRate() == null
+                || info.get().getDurationSec() == null && !info.get().isVbr())) {
+            final Optional<Long> length = DownloadUtil.probeLength(url, proxy);
+            if (length.isPresent()) {
+                return parse(bytes, from, length.get() - audioStart);
+            }
+        }
+        return info;
+    }
+
+    /**
+     * @return offset of audio frames: size of ID3v2 tag, 0 if there is no tag
+     */
+    static long audioStart(byte[] bytes) {
+        if (bytes.length < ID3_HEADER_SIZE || bytes[0] != 'I' || bytes[1] != 'D' || bytes[2] != '3') {
+            return 0;
+        }
+        // Syncsafe integer: 7 bits of each byte
+        final long size = (bytes[6] & 0x7F) << 21 | (bytes[7] & 0x7F) << 14 | (bytes[8] & 0x7F) << 7
+                | (bytes[9] & 0x7F);
+        final boolean footer = (bytes[5] & 0x10) != 0;
+        return ID3_HEADER_SIZE + size + (footer ? ID3_HEADER_SIZE : 0);
+    }
+
+    /**
+     * @param audioLength length of the file without ID3v2 tag, -1 if unknown
+     * @return info without bitrate if it's VBR header without number of bytes and the length is unknown
+     */
+    static Optional<Mp3Info> parse(byte[] bytes, int from, long audioLength) {
+        final Frame first = findFirstFrame(bytes, from);
+        if (first == null) {
+            log.debug("No MPEG audio frame found");
+            return empty();
+        }
+
+        final VbrHeader vbrHeader = readVbrHeader(bytes, first);
+        if (vbrHeader != null && vbrHeader.frames > 0) {
+            final double duration = (double) vbrHeader.frames * first.samples() / first.sampleRate;
+            final long audioBytes = vbrHeader.bytes > 0 ? vbrHeader.bytes : audioLength;
+            final Short bitRate;
+            if (audioBytes > 0) {
+                bitRate = (short) Math.round(audioBytes * 8 / duration / 1000);
+            } else {
+                // Bitrate of the first frame is the average one only in CBR files with Info header
+                bitRate = vbrHeader.vbr ? null : (short) first.bitRate;
+            }
+            return of(new Mp3Info(bitRate, (int) Math.round(duration), vbrHeader.vbr, first.sampleRate));
+        }
+
+        // No header: bitrate is the same in all frames of CBR file, unless the next frames say otherwise
+        long bitRates = 0;
+        int frames = 0;
+        boolean vbr = false;
+        for (Frame frame = first; frame != null; frame = readFrame(bytes, frame.offset + frame.length)) {
+            bitRates += frame.bitRate;
+            frames++;
+            vbr |= frame.bitRate != first.bitRate;
+        }
+        final int bitRate = (int) Math.round((double) bitRates / frames);
+        final Integer duration = !vbr && audioLength > 0
+                ? (int) Math.round(audioLength * 8. / (bitRate * 1000)) : null;
+        return of(new Mp3Info((short) bitRate, duration, vbr, first.sampleRate));
+    }
+
+    private static Frame findFirstFrame(byte[] bytes, int from) {
+        for (int offset = from; offset + 4 <= bytes.length; offset++) {
+            final Frame frame = readFrame(bytes, offset);
+            // The next frame has to be right after it, otherwise it's random bytes looking like a header
+            if (frame != null && (offset + frame.length + 4 > bytes.length
+                    || readFrame(bytes, offset + frame.length) != null)) {
+                return frame;
+            }
+        }
+        return null;
+    }
+
+    private static Frame readFrame(byte[] bytes, int offset) {
+        if (offset + 4 > bytes.length || (bytes[offset] & 0xFF) != 0xFF || (bytes[offset + 1] & 0xE0) != 0xE0) {
+            return null;
+        }
+        final int version = (bytes[offset + 1] >> 3) & 3;
+        final int layerBits = (bytes[offset + 1] >> 1) & 3;
+        final int bitRateIndex = (bytes[offset + 2] >> 4) & 0xF;
+        final int sampleRateIndex = (bytes[offset + 2] >> 2) & 3;
+        if (version == 1 || layerBits == 0 || bitRateIndex == 0 || bitRateIndex == 15 || sampleRateIndex == 3) {
+            return null;
+        }
+
+        final int layer = 4 - layerBits;
+        final boolean mpeg1 = version == 3;
+        final int bitRate = BIT_RATES[mpeg1 ? 0 : 1][layer - 1][bitRateIndex];
+        final int sampleRate = SAMPLE_RATES[version][sampleRateIndex];
+        final int padding = (bytes[offset + 2] >> 1) & 1;
+        final boolean mono = ((bytes[offset + 3] >> 6) & 3) == 3;
+        final int length;
+        if (layer == 1) {
+            length = (12 * bitRate * 1000 / sampleRate + padding) * 4;
+        } else if (layer == 3 && !mpeg1) {
+            length = 72 * bitRate * 1000 / sampleRate + padding;
+        } else {
+            length = 144 * bitRate * 1000 / sampleRate + padding;
+        }
+        return new Frame(offset, layer, mpeg1, bitRate, sampleRate, mono, length);
+    }
+
+    private static VbrHeader readVbrHeader(byte[] bytes, Frame frame) {
+        if (frame.layer != 3) {
+            return null;
+        }
+        // Xing/Info is right after side information of the first frame
+        final int sideInfo = frame.mpeg1 ? (frame.mono ? 17 : 32) : (frame.mono ? 9 : 17);
+        final int xing = frame.offset + 4 + sideInfo;
+        if (matches(bytes, xing, "Xing") || matches(bytes, xing, "Info")) {
+            final int flags = readInt(bytes, xing + 4);
+            int position = xing + 8;
+            long frames = 0;
+            long audioBytes = 0;
+            if ((flags & 1) != 0) {
+                frames = readInt(bytes, position) & 0xFFFFFFFFL;
+                position += 4;
+            }
+            if ((flags & 2) != 0) {
+                audioBytes = readInt(bytes, position) & 0xFFFFFFFFL;
+            }
+            return new VbrHeader(matches(bytes, xing, "Xing"), frames, audioBytes);
+        }
+
+        // VBRI is at the fixed offset of the first frame
+        final int vbri = frame.offset + 4 + 32;
+        if (matches(bytes, vbri, "VBRI")) {
+            return new VbrHeader(true, readInt(bytes, vbri + 14) & 0xFFFFFFFFL,
+                    readInt(bytes, vbri + 10) & 0xFFFFFFFFL);
+        }
+        return null;
+    }
+
+    private static boolean matches(byte[] bytes, int offset, String tag) {
+        if (offset + tag.length() > bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < tag.length(); i++) {
+            if (bytes[offset + i] != tag.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        if (offset + 4 > bytes.length) {
+            return 0;
+        }
+        return (bytes[offset] & 0xFF) << 24 | (bytes[offset + 1] & 0xFF) << 16 | (bytes[offset + 2] & 0xFF) << 8
+                | (bytes[offset + 3] & 0xFF);
+    }
+
+    private static final class Frame {
+        final int offset;
+        final int layer;
+        final boolean mpeg1;
+        final int bitRate;
+        final int sampleRate;
+        final boolean mono;
+        final int length;
+
+        Frame(int offset, int layer, boolean mpeg1, int bitRate, int sampleRate, boolean mono, int length) {
+            this.offset = offset;
+            this.layer = layer;
+            this.mpeg1 = mpeg1;
+            this.bitRate = bitRate;
+            this.sampleRate = sampleRate;
+            this.mono = mono;
+            this.length = length;
+        }
+
+        int samples() {
+            if (layer == 1) {
+                return 384;
+            }
+            return layer == 3 && !mpeg1 ? 576 : 1152;
+        }
+    }
+
+    private static final class VbrHeader {
+        final boolean vbr;
+        final long frames;
+        final long bytes;
+
+        VbrHeader(boolean vbr, long frames, long bytes) {
+            this.vbr = vbr;
+            this.frames = frames;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package songbox.house.util;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.lang.System.nanoTime;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Stops calling an operation which fails too often. The breaker is CLOSED while failure rate of the calls in the
+ * sliding window is below the threshold, then it's OPEN and calls fail fast for {@code openMs}, then it's HALF_OPEN
+ * and a few trial calls decide whether it's CLOSED or OPEN again.
+ * <p>
+ * State and window are updated by CAS only, so checking the breaker never blocks the calling thread.
+ */
+@Slf4j
+public final class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    public static final double DEFAULT_FAILURE_RATE = 0.5;
+    public static final int DEFAULT_MINIMUM_CALLS = 20;
+    public static final long DEFAULT_WINDOW_MS = 10_000;
+    public static final long DEFAULT_OPEN_MS = 10_000;
+    public static final int DEFAULT_HALF_OPEN_CALLS = 3;
+
+    private static final int BUCKETS = 10;
+    // Bucket of the window: 24 bits of its number, 20 bits of calls and 20 bits of failures in one long
+    private static final int COUNT_BITS = 20;
+    private static final int STAMP_SHIFT = 2 * COUNT_BITS;
+    private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+    private static final long COUNTS_MASK = (1L << STAMP_SHIFT) - 1;
+    private static final long STAMP_MASK = (1L << 24) - 1;
+
+    private static final ConcurrentMap<String, CircuitBreaker> BREAKERS = new ConcurrentHashMap<>();
+
+    private final String name;
+    private final double failureRate;
+    private final int minimumCalls;
+    private final long bucketNanos;
+    private final long openNanos;
+    private final int halfOpenCalls;
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicReference<Status> status = new AtomicReference<>(new Status(State.CLOSED, 0, 0));
+
+    public CircuitBreaker(String name) {
+        this(name, DEFAULT_FAILURE_RATE, DEFAULT_MINIMUM_CALLS, DEFAULT_WINDOW_MS, DEFAULT_OPEN_MS,
+                DEFAULT_HALF_OPEN_CALLS);
+    }
+
+    /**
+     * @param failureRate   part of failed calls in the window which opens the breaker, from 0 to 1
+     * @param minimumCalls  calls in the window before failure rate is checked
+     * @param halfOpenCalls trial calls in HALF_OPEN state which have to succeed to close the breaker
+     */
+    public CircuitBreaker(String name, double failureRate, int minimumCalls, long windowMs, long openMs,
+            int halfOpenCalls) {
+        this.name = name;
+        this.failureRate = failureRate;
+        this.minimumCalls = Math.max(1, minimumCalls);
+        this.bucketNanos = Math.max(1, MILLISECONDS.toNanos(windowMs) / BUCKETS);
+        this.openNanos = MILLISECONDS.toNanos(openMs);
+        this.halfOpenCalls = Math.max(1, halfOpenCalls);
+    }
+
+    /**
+     * @return breaker of the operation, created with default settings on the first call
+     */
+    public static CircuitBreaker forOperation(String operation) {
+        return BREAKERS.computeIfAbsent(operation, CircuitBreaker::new);
+    }
+
+    /**
+     * @return breaker of the operation if it was created or registered, null otherwise
+     */
+    public static CircuitBreaker getRegistered(String operation) {
+        return BREAKERS.get(operation);
+    }
+
+    /**
+     * Replaces the breaker of its operation, e.g. to use other settings.
+     */
+    public static void register(CircuitBreaker breaker) {
+        BREAKERS.put(breaker.getName(), breaker);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public State getState() {
+        return status.get().state;
+    }
+
+    /**
+     * Checks the breaker before a call. Every permitted call has to be followed by {@link #onSuccess()} or
+     * {@link #onFailure()}.
+     *
+     * @return false if the call has to fail fast
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            final Status current = status.get();
+            if (current.state == State.CLOSED) {
+                return true;
+            }
+            final long now = nanoTime();
+            if (now - current.sinceNanos < openNanos) {
+                return current.state == State.HALF_OPEN && current.takePermit();
+            }
+            // Open long enough, or trial calls didn't report in time: let new trial calls in
+            final Status halfOpen = new Status(State.HALF_OPEN, now, halfOpenCalls);
+            if (status.compareAndSet(current, halfOpen)) {
+                log.debug("Circuit breaker {} is half open", name);
+                return halfOpen.takePermit();
+            }
+        }
+    }
+
+    public void onSuccess() {
+        final Status current = status.get();
+        if (current.state == State.HALF_OPEN) {
+            if (current.successes.incrementAndGet() >= halfOpenCalls
+                    && status.compareAndSet(current, new Status(State.CLOSED, nanoTime(), 0))) {
+                resetWindow();
+                log.info("Circuit breaker {} is closed", name);
+            }
+        } else if (current.state == State.CLOSED) {
+            record(false);
+        }
+    }
+
+    public void onFailure() {
+        final Status current = status.get();
+        if (current.state == State.HALF_OPEN) {
+            open(current);
+        } else if (current.state == State.CLOSED && record(true)) {
+            open(current);
+        }
+    }
+
+    private void open(Status current) {
+        if (status.compareAndSet(current, new Status(State.OPEN, nanoTime(), 0))) {
+            log.warn("Circuit breaker {} is open for {}ms", name, NANOSECONDS.toMillis(openNanos));
+        }
+    }
+
+    /**
+     * Adds the call to its bucket.
+     *
+     * @return true if failure rate of the window is over the threshold
+     */
+    private boolean record(boolean failure) {
+        final long number = Math.floorDiv(nanoTime(), bucketNanos);
+        final long stamp = number & STAMP_MASK;
+        final int index = (int) Math.floorMod(number, BUCKETS);
+        long bucket;
+        long updated;
+        do {
+            bucket = buckets.get(index);
+            final long counts = bucket >>> STAMP_SHIFT == stamp ? bucket & COUNTS_MASK : 0;
+            final long total = Math.min(COUNT_MASK, (counts >>> COUNT_BITS) + 1);
+            final long failures = Math.min(COUNT_MASK, (counts & COUNT_MASK) + (failure ? 1 : 0));
+            updated = stamp << STAMP_SHIFT | total << COUNT_BITS | failures;
+        } while (!buckets.compareAndSet(index, bucket, updated));
+
+        if (!failure) {
+            return false;
+        }
+        long total = 0;
+        long failures = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            final long other = buckets.get(i);
+            // Buckets older than the window are left from previous rounds
+            if (((stamp - (other >>> STAMP_SHIFT)) & STAMP_MASK) < BUCKETS) {
+                total += (other >>> COUNT_BITS) & COUNT_MASK;
+                failures += other & COUNT_MASK;
+            }
+        }
+        return total >= minimumCalls && failures >= failureRate * total;
+    }
+
+    private void resetWindow() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+    }
+
+    private static final class Status {
+        final State state;
+        final long sinceNanos;
+        final AtomicInteger permits;
+        final AtomicInteger successes = new AtomicInteger();
+
+        Status(State state, long sinceNanos, int permits) {
+            this.state = state;
+            this.sinceNanos = sinceNanos;
+            this.permits = new AtomicInteger(permits);
+        }
+
+        boolean takePermit() {
+            return permits.getAndUpdate(left -> Math.max(0, left - 1)) > 0;
+        }
+    }
+
+    /**
+     * Thrown instead of calling an operation while its breaker is open.
+     */
+    public static final class OpenException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public OpenException(String name) {
+            super("Circuit breaker " + name + " is open");
+        }
+    }
+}
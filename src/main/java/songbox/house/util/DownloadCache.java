@@ -0,0 +1,442 @@
+package songbox.house.util;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+import static java.util.Optional.empty;
+import static java.util.Optional.of;
+
+/**
+ * Disk cache of downloaded bodies keyed by URL and range. Bodies are stored once per content, in a file named by
+ * SHA-256 of it, so the same file under several URLs takes space once. Least recently used keys are evicted when
+ * total size of bodies is over the budget.
+ * <p>
+ * Keys are kept in a binary index file in LRU order, which is read at startup. Puts and removes are appended to a
+ * journal next to it, which is replayed on top of the index and merged into it by {@link #flush()} or when it grows
+ * longer than the index, so a change doesn't rewrite all keys. Access order is saved by {@link #flush()} only. Hits
+ * are returned as read-only memory-mapped buffers. Concurrent {@link #getOrFetch} of the same key run one fetch,
+ * the others wait for its result.
+ */
+@Slf4j
+public final class DownloadCache {
+
+    private static final int INDEX_VERSION = 1;
+    private static final String INDEX_FILE = "index.bin";
+    private static final String JOURNAL_FILE = "journal.bin";
+    private static final int MIN_JOURNAL_RECORDS = 1000;
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final String OBJECTS_DIRECTORY = "objects";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Path directory;
+    private final long maxSize;
+    // Access-ordered, eldest is evicted first
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Integer> references = new HashMap<>();
+    private final SingleFlight<String, Optional<ByteBuffer>> fetching = new SingleFlight<>();
+    private long size;
+    private DataOutputStream journal;
+    private int journalRecords;
+
+    public DownloadCache(Path directory, long maxSize) throws IOException {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        Files.createDirectories(directory.resolve(OBJECTS_DIRECTORY));
+        loadIndex();
+        replayJournal();
+        evict();
+        saveIndex();
+    }
+
+    /**
+     * @return key of the range, or of the whole body if range is negative
+     */
+    public static String key(String url, long bytesStart, long bytesEnd) {
+        return bytesStart >= 0 && bytesEnd >= bytesStart ? url + "#" + bytesStart + "-" + bytesEnd : url;
+    }
+
+    /**
+     * @return read-only mapped body, empty if it isn't cached
+     */
+    public synchronized Optional<ByteBuffer> get(String key) {
+        final Entry entry = entries.get(key);
+        if (entry == null) {
+            return empty();
+        }
+        try {
+            return of(map(objectPath(entry.hash)));
+        } catch (IOException e) {
+            log.warn("Can't read cached {}", key, e);
+            remove(key);
+            return empty();
+        }
+    }
+
+    /**
+     * Returns cached body or fetches it with {@code fetch} to the given temporary file and caches it. Only one fetch
+     * of a key runs at a time, concurrent callers of the same key get its result.
+     *
+     * @param fetch writes the body to the file, returns empty if it failed
+     */
+    public Optional<ByteBuffer> getOrFetch(String key, Function<Path, Optional<Long>> fetch) {
+        final Optional<ByteBuffer> cached = get(key);
+        if (cached.isPresent()) {
+            return cached;
+        }
+
+        // The buffer is shared by all callers of the flight, each one reads its own duplicate
+        return fetching.execute(key, () -> {
+            // Could be cached by a fetch which finished after the first lookup
+            final Optional<ByteBuffer> fetched = get(key);
+            return fetched.isPresent() ? fetched : fetchAndPut(key, fetch);
+        }).map(ByteBuffer::duplicate);
+    }
+
+    /**
+     * Moves the file to the cache.
+     *
+     * @return mapped body
+     */
+    public Optional<ByteBuffer> put(String key, Path file) {
+        try {
+            final String hash = hash(file);
+            final Path objectPath = objectPath(hash);
+            final long fileSize = Files.size(file);
+            synchronized (this) {
+                if (Files.exists(objectPath)) {
+                    Files.delete(file);
+                } else {
+                    Files.createDirectories(objectPath.getParent());
+                    Files.move(file, objectPath, REPLACE_EXISTING, ATOMIC_MOVE);
+                }
+                final Entry entry = new Entry(hash, fileSize);
+                putEntry(key, entry);
+                appendPut(key, entry);
+                evict();
+                compactJournal();
+                // Mapped before other threads can evict it
+                return of(map(objectPath));
+            }
+        } catch (IOException e) {
+            log.warn("Can't cache {}", key, e);
+            return empty();
+        }
+    }
+
+    public synchronized void remove(String key) {
+        final Entry entry = entries.remove(key);
+        if (nonNull(entry)) {
+            release(entry);
+            appendRemove(key);
+            compactJournal();
+        }
+    }
+
+    public synchronized int count() {
+        return entries.size();
+    }
+
+    /**
+     * @return total size of cached bodies, each content is counted once
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+    /**
+     * Saves access order of keys to the index and merges the journal into it.
+     */
+    public synchronized void flush() {
+        saveIndex();
+    }
+
+    private Optional<ByteBuffer> fetchAndPut(String key, Function<Path, Optional<Long>> fetch) {
+        Path tmp = null;
+        try {
+            tmp = Files.createTempFile(directory, "fetch", ".tmp");
+            if (!fetch.apply(tmp).isPresent()) {
+                return empty();
+            }
+            return put(key, tmp);
+        } catch (IOException e) {
+            log.warn("Can't fetch {} to cache", key, e);
+            return empty();
+        } finally {
+            // Left only if it wasn't moved to the cache
+            if (nonNull(tmp)) {
+                deleteQuietly(tmp);
+            }
+        }
+    }
+
+    private void evict() {
+        final Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        // The newest entry is kept even if it's bigger than the budget
+        while (size > maxSize && entries.size() > 1 && eldest.hasNext()) {
+            final Map.Entry<String, Entry> next = eldest.next();
+            final String key = next.getKey();
+            final Entry entry = next.getValue();
+            eldest.remove();
+            release(entry);
+            appendRemove(key);
+        }
+    }
+
+    private void putEntry(String key, Entry entry) {
+        // Referenced before the previous entry is released, which may have the same content
+        if (references.merge(entry.hash, 1, Integer::sum) == 1) {
+            size += entry.size;
+        }
+        final Entry previous = entries.put(key, entry);
+        if (nonNull(previous)) {
+            release(previous);
+        }
+    }
+
+    private void release(Entry entry) {
+        final Integer left = references.merge(entry.hash, -1, Integer::sum);
+        if (left != null && left <= 0) {
+            references.remove(entry.hash);
+            size -= entry.size;
+            // Buffers mapped before stay readable on POSIX systems
+            deleteQuietly(objectPath(entry.hash));
+        }
+    }
+
+    private void loadIndex() throws IOException {
+        final Path indexPath = directory.resolve(INDEX_FILE);
+        if (!Files.exists(indexPath)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexPath)))) {
+            if (in.readInt() != INDEX_VERSION) {
+                log.warn("Unknown version of download cache index {}, cache is empty", indexPath);
+                return;
+            }
+            final int count = in.readInt();
+            final byte[] digest = new byte[32];
+            for (int i = 0; i < count; i++) {
+                final String key = in.readUTF();
+                in.readFully(digest);
+                final long entrySize = in.readLong();
+                final String hash = hex(digest);
+                if (Files.exists(objectPath(hash))) {
+                    putEntry(key, new Entry(hash, entrySize));
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Can't read download cache index {}, cache is empty", indexPath, e);
+            entries.clear();
+            references.clear();
+            size = 0;
+        }
+    }
+
+    /**
+     * Applies changes made after the index was saved. A record cut by a crash ends the journal.
+     */
+    private void replayJournal() {
+        final Path journalPath = directory.resolve(JOURNAL_FILE);
+        if (!Files.exists(journalPath)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(journalPath)))) {
+            final byte[] digest = new byte[32];
+            for (int type = in.read(); type != -1; type = in.read()) {
+                final String key = in.readUTF();
+                if (type == PUT) {
+                    in.readFully(digest);
+                    final long entrySize = in.readLong();
+                    final String hash = hex(digest);
+                    if (Files.exists(objectPath(hash))) {
+                        putEntry(key, new Entry(hash, entrySize));
+                    }
+                } else if (type == REMOVE) {
+                    final Entry entry = entries.remove(key);
+                    if (nonNull(entry)) {
+                        release(entry);
+                    }
+                } else {
+                    log.warn("Unknown record {} in download cache journal {}, the rest is skipped", type,
+                            journalPath);
+                    return;
+                }
+            }
+        } catch (EOFException e) {
+            log.warn("Download cache journal {} is cut, the last record is skipped", journalPath);
+        } catch (IOException e) {
+            log.warn("Can't read download cache journal {}", journalPath, e);
+        }
+    }
+
+    private void appendPut(String key, Entry entry) {
+        append(PUT, key, entry);
+    }
+
+    private void appendRemove(String key) {
+        append(REMOVE, key, null);
+    }
+
+    private void append(byte type, String key, Entry entry) {
+        if (isNull(journal)) {
+            // While loading, or if the journal can't be written: saved to the index by the next flush
+            return;
+        }
+        try {
+            journal.writeByte(type);
+            journal.writeUTF(key);
+            if (nonNull(entry)) {
+                journal.write(unhex(entry.hash));
+                journal.writeLong(entry.size);
+            }
+            journal.flush();
+            journalRecords++;
+        } catch (IOException e) {
+            log.warn("Can't write download cache journal, saving index", e);
+            saveIndex();
+        }
+    }
+
+    /**
+     * Merges the journal into the index when it's longer than the index, so replay and disk usage stay bounded.
+     */
+    private void compactJournal() {
+        if (journalRecords > Math.max(MIN_JOURNAL_RECORDS, entries.size())) {
+            saveIndex();
+        }
+    }
+
+    private void saveIndex() {
+        final Path indexPath = directory.resolve(INDEX_FILE);
+        final Path tmp = directory.resolve(INDEX_FILE + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(INDEX_VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.write(unhex(entry.getValue().hash));
+                out.writeLong(entry.getValue().size);
+            }
+        } catch (IOException e) {
+            log.warn("Can't write download cache index {}", tmp, e);
+            return;
+        }
+        try {
+            Files.move(tmp, indexPath, REPLACE_EXISTING, ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Can't write download cache index {}", indexPath, e);
+            return;
+        }
+        resetJournal();
+    }
+
+    /**
+     * Starts an empty journal after the index is saved. Replay of the old journal on top of the new index after a
+     * crash in between gives the same keys.
+     */
+    private void resetJournal() {
+        final Path journalPath = directory.resolve(JOURNAL_FILE);
+        try {
+            if (nonNull(journal)) {
+                journal.close();
+            }
+            journal = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(journalPath, CREATE, WRITE, TRUNCATE_EXISTING)));
+            journalRecords = 0;
+        } catch (IOException e) {
+            log.warn("Can't write download cache journal {}, changes are saved to the index", journalPath, e);
+            journal = null;
+        }
+    }
+
+    private Path objectPath(String hash) {
+        return directory.resolve(OBJECTS_DIRECTORY).resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    private static ByteBuffer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, READ)) {
+            return channel.map(READ_ONLY, 0, channel.size());
+        }
+    }
+
+    private static String hash(Path file) throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        try (InputStream in = Files.newInputStream(file)) {
+            final byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return hex(digest.digest());
+    }
+
+    private static String hex(byte[] bytes) {
+        final char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+    private static byte[] unhex(String hex) {
+        final byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.debug("Can't delete {}", path, e);
+        }
+    }
+
+    private static final class Entry {
+        final String hash;
+        final long size;
+
+        Entry(String hash, long size) {
+            this.hash = hash;
+            this.size = size;
+        }
+    }
+}
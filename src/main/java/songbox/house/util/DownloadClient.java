@@ -0,0 +1,187 @@
+package songbox.house.util;
+
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.Proxy;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static java.util.Objects.nonNull;
+
+/**
+ * Opens and releases download connections. Pooling itself is done by the JDK keep-alive cache, which keeps idle
+ * connections per host, port and proxy; this client makes connections eligible for it: a body or an error body is
+ * read to the end and closed instead of being abandoned, and a broken connection is disconnected so it isn't reused.
+ * <p>
+ * Counts requests per route (host, port and proxy) and how their connections ended, see {@link #getStats()}. The
+ * JDK cache doesn't expose whether a connection was reused or how many are idle, so neither is counted.
+ */
+@Slf4j
+public final class DownloadClient {
+
+    public static final int DEFAULT_CONNECT_TIMEOUT = 10_000;
+    public static final int DEFAULT_READ_TIMEOUT = 10_000;
+
+    private static final String USER_AGENT =
+            "Mozilla/5.0 (X11; U; Linux i586; en-US; rv:1.7.3) Gecko/20040924 Epiphany/1.4.4 (Ubuntu)";
+
+    // Rest of the body is read to keep the connection only if it's small, otherwise reconnect is cheaper
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final ConcurrentMap<Route, RouteCounters> routes = new ConcurrentHashMap<>();
+
+    public DownloadClient() {
+        this(DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT);
+    }
+
+    public DownloadClient(int connectTimeout, int readTimeout) {
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    public HttpURLConnection open(URL url, Proxy proxy) throws IOException {
+        final HttpURLConnection connection =
+                (HttpURLConnection) (nonNull(proxy) ? url.openConnection(proxy) : url.openConnection());
+        connection.setConnectTimeout(connectTimeout);
+        connection.setReadTimeout(readTimeout);
+        connection.setRequestProperty("User-Agent", USER_AGENT);
+        counters(url, proxy).opened();
+        return connection;
+    }
+
+    /**
+     * Reads the rest of the body if it's small and closes the stream, so the connection goes back to keep-alive cache.
+     */
+    public void release(HttpURLConnection connection, Proxy proxy, InputStream inputStream) {
+        final RouteCounters counters = counters(connection.getURL(), proxy);
+        if (drain(inputStream)) {
+            counters.released(false);
+        } else {
+            connection.disconnect();
+            counters.closed(false);
+        }
+    }
+
+    /**
+     * Releases the connection after failed request: error body is read to keep the connection, connection with broken
+     * or unknown state is disconnected.
+     */
+    public void fail(HttpURLConnection connection, Proxy proxy) {
+        final RouteCounters counters = counters(connection.getURL(), proxy);
+        if (drain(connection.getErrorStream())) {
+            counters.released(true);
+        } else {
+            connection.disconnect();
+            counters.closed(true);
+        }
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    /**
+     * @return snapshot of counters per route
+     */
+    public Map<Route, RouteStats> getStats() {
+        final Map<Route, RouteStats> stats = new HashMap<>();
+        routes.forEach((route, counters) -> stats.put(route, counters.snapshot()));
+        return stats;
+    }
+
+    private RouteCounters counters(URL url, Proxy proxy) {
+        final int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+        return routes.computeIfAbsent(new Route(url.getProtocol(), url.getHost(), port, proxy),
+                route -> new RouteCounters());
+    }
+
+    private static boolean drain(InputStream inputStream) {
+        if (inputStream == null) {
+            return false;
+        }
+        try (InputStream in = inputStream) {
+            final byte[] buffer = new byte[8192];
+            int drained = 0;
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                drained += read;
+                if (drained > MAX_DRAIN_BYTES) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            log.debug("Can't drain connection", e);
+            return false;
+        }
+    }
+
+    @Data
+    public static final class Route {
+        private final String protocol;
+        private final String host;
+        private final int port;
+        private final Proxy proxy;
+    }
+
+    @Data
+    public static final class RouteStats {
+        private final long requests;
+        private final long failures;
+        private final int active;
+        /**
+         * Connections read to the end and handed to the keep-alive cache, which may still drop them
+         */
+        private final long released;
+        /**
+         * Connections disconnected, as their state was broken or the rest of the body was too big
+         */
+        private final long closed;
+    }
+
+    private static final class RouteCounters {
+        long requests;
+        long failures;
+        int active;
+        long released;
+        long closed;
+
+        synchronized void opened() {
+            requests++;
+            active++;
+        }
+
+        synchronized void released(boolean failed) {
+            active--;
+            released++;
+            if (failed) {
+                failures++;
+            }
+        }
+
+        synchronized void closed(boolean failed) {
+            active--;
+            closed++;
+            if (failed) {
+                failures++;
+            }
+        }
+
+        synchronized RouteStats snapshot() {
+            return new RouteStats(requests, failures, active, released, closed);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package songbox.house.util;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+
+import static com.fasterxml.jackson.databind.DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.util.Objects.nonNull;
+import static java.util.Optional.empty;
+
+/**
+ * State of a partially downloaded file, kept in a sidecar JSON file next to it: URL, total length, validator of the
+ * resource (ETag or Last-Modified) and how many bytes of each range are written. Download continues from it after
+ * retries and restarts if the resource wasn't changed.
+ */
+@Data
+@NoArgsConstructor
+@Slf4j
+public final class DownloadJournal {
+
+    private static final String SUFFIX = ".journal";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper().disable(FAIL_ON_UNKNOWN_PROPERTIES);
+
+    private String url;
+    private long length;
+    private String etag;
+    private String lastModified;
+    private List<Segment> segments = new ArrayList<>();
+
+    public DownloadJournal(String url, long length, String etag, String lastModified) {
+        this.url = url;
+        this.length = length;
+        this.etag = etag;
+        this.lastModified = lastModified;
+    }
+
+    public static Path journalPath(Path path) {
+        return path.resolveSibling(path.getFileName() + SUFFIX);
+    }
+
+    public static Optional<DownloadJournal> load(Path journalPath) {
+        if (!Files.exists(journalPath)) {
+            return empty();
+        }
+        try {
+            return Optional.of(MAPPER.readValue(journalPath.toFile(), DownloadJournal.class));
+        } catch (IOException e) {
+            log.warn("Can't read download journal {}", journalPath, e);
+            return empty();
+        }
+    }
+
+    /**
+     * Writes to a temporary file first, so the journal is never left half written.
+     */
+    public synchronized void save(Path journalPath) {
+        final Path tmp = journalPath.resolveSibling(journalPath.getFileName() + ".tmp");
+        try {
+            MAPPER.writeValue(tmp.toFile(), this);
+            Files.move(tmp, journalPath, REPLACE_EXISTING, ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Can't write download journal {}", journalPath, e);
+        }
+    }
+
+    /**
+     * Splits the whole length to {@code count} ranges of the same size, the last one may be shorter.
+     */
+    public void split(int count) {
+        segments.clear();
+        final long segmentSize = (length + count - 1) / count;
+        for (long start = 0; start < length; start += segmentSize) {
+            segments.add(new Segment(start, Math.min(length, start + segmentSize) - 1));
+        }
+    }
+
+    /**
+     * @return value for "If-Range" header, strong ETag if there is one
+     */
+    @JsonIgnore
+    public String getValidator() {
+        return nonNull(etag) && !etag.startsWith("W/") ? etag : lastModified;
+    }
+
+    /**
+     * @return true if the other journal describes the same version of the same resource, so written bytes are valid
+     */
+    public boolean isSameResource(DownloadJournal other) {
+        return Objects.equals(url, other.url) && length == other.length && nonNull(getValidator())
+                && Objects.equals(etag, other.etag) && Objects.equals(lastModified, other.lastModified);
+    }
+
+    @JsonIgnore
+    public boolean isComplete() {
+        return segments.stream().allMatch(Segment::isComplete);
+    }
+
+    @Data
+    @NoArgsConstructor
+    public static final class Segment {
+        private long start;
+        private long end;
+        private volatile long written;
+
+        public Segment(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        @JsonIgnore
+        public boolean isComplete() {
+            return written >= end - start + 1;
+        }
+    }
+}
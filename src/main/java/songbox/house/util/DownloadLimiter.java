@@ -0,0 +1,145 @@
+package songbox.house.util;
+
+import java.io.InterruptedIOException;
+import java.net.Proxy;
+import java.net.URL;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.LockSupport;
+
+import static java.util.Objects.nonNull;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Limits concurrent download connections per host and per proxy, and optionally total download speed. Callers
+ * over the limit wait in FIFO order instead of failing, so waiting doesn't cost them retries.
+ * <p>
+ * Speed is limited by a token bucket of one second burst; a read which takes more bytes than there are tokens
+ * waits until the debt is refilled.
+ */
+public final class DownloadLimiter {
+
+    public static final int UNLIMITED = 0;
+
+    public static final DownloadLimiter NONE = new DownloadLimiter(UNLIMITED, UNLIMITED, UNLIMITED);
+
+    private static final Permit NO_PERMIT = new Permit(null, null);
+
+    private final int maxConnectionsPerHost;
+    private final int maxConnectionsPerProxy;
+    private final long bytesPerSecond;
+    private final ConcurrentMap<String, Semaphore> hosts = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Proxy, Semaphore> proxies = new ConcurrentHashMap<>();
+
+    private long tokens;
+    private long refilledNanos = System.nanoTime();
+
+    /**
+     * @param maxConnectionsPerHost  max concurrent connections to one host, {@link #UNLIMITED} for no limit
+     * @param maxConnectionsPerProxy max concurrent connections through one proxy, {@link #UNLIMITED} for no limit
+     * @param bytesPerSecond         max total download speed, {@link #UNLIMITED} for no limit
+     */
+    public DownloadLimiter(int maxConnectionsPerHost, int maxConnectionsPerProxy, long bytesPerSecond) {
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        this.maxConnectionsPerProxy = maxConnectionsPerProxy;
+        this.bytesPerSecond = bytesPerSecond;
+        this.tokens = bytesPerSecond;
+    }
+
+    /**
+     * Waits for a free connection slot of the host and of the proxy. Host slot is always taken first, so callers
+     * don't deadlock on each other's slots.
+     *
+     * @return permit to close when the connection is released
+     */
+    public Permit acquire(URL url, Proxy proxy) throws InterruptedIOException {
+        final Semaphore host = maxConnectionsPerHost > 0
+                ? hosts.computeIfAbsent(url.getHost().toLowerCase(Locale.ROOT), key -> newSemaphore(maxConnectionsPerHost))
+                : null;
+        final Semaphore proxySemaphore = maxConnectionsPerProxy > 0 && nonNull(proxy) && proxy.type() != Proxy.Type.DIRECT
+                ? proxies.computeIfAbsent(proxy, key -> newSemaphore(maxConnectionsPerProxy))
+                : null;
+        if (host == null && proxySemaphore == null) {
+            return NO_PERMIT;
+        }
+
+        try {
+            if (nonNull(host)) {
+                host.acquire();
+            }
+            try {
+                if (nonNull(proxySemaphore)) {
+                    proxySemaphore.acquire();
+                }
+            } catch (InterruptedException e) {
+                if (nonNull(host)) {
+                    host.release();
+                }
+                throw e;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for connection to " + url.getHost());
+        }
+        return new Permit(host, proxySemaphore);
+    }
+
+    /**
+     * Takes {@code bytes} tokens of the speed limit, waiting if they aren't refilled yet.
+     */
+    public void throttle(int bytes) throws InterruptedIOException {
+        if (bytesPerSecond <= 0) {
+            return;
+        }
+        final long waitNanos;
+        synchronized (this) {
+            final long now = System.nanoTime();
+            final long elapsed = Math.min(now - refilledNanos, SECONDS.toNanos(1));
+            final long refilled = elapsed * bytesPerSecond / SECONDS.toNanos(1);
+            if (tokens + refilled >= bytesPerSecond) {
+                tokens = bytesPerSecond;
+                refilledNanos = now;
+            } else if (refilled > 0) {
+                // Time of the refilled tokens only, so the remainder isn't lost on frequent small reads
+                tokens += refilled;
+                refilledNanos += refilled * SECONDS.toNanos(1) / bytesPerSecond;
+            }
+            tokens -= bytes;
+            waitNanos = tokens < 0 ? -tokens * SECONDS.toNanos(1) / bytesPerSecond : 0;
+        }
+
+        final long deadline = System.nanoTime() + waitNanos;
+        for (long left = waitNanos; left > 0; left = deadline - System.nanoTime()) {
+            LockSupport.parkNanos(this, left);
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("Interrupted while throttling download");
+            }
+        }
+    }
+
+    private static Semaphore newSemaphore(int permits) {
+        return new Semaphore(permits, true);
+    }
+
+    public static final class Permit implements AutoCloseable {
+        private final Semaphore host;
+        private final Semaphore proxy;
+
+        private Permit(Semaphore host, Semaphore proxy) {
+            this.host = host;
+            this.proxy = proxy;
+        }
+
+        @Override
+        public void close() {
+            if (nonNull(proxy)) {
+                proxy.release();
+            }
+            if (nonNull(host)) {
+                host.release();
+            }
+        }
+    }
+}
@@ -2,71 +2,658 @@ package songbox.house.util;
 
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
 import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
 import java.net.Proxy;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 
+import static java.net.HttpURLConnection.HTTP_PARTIAL;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.Objects.isNull;
 import static java.util.Objects.nonNull;
 import static java.util.Optional.empty;
 import static java.util.Optional.of;
-import static org.apache.commons.io.IOUtils.toByteArray;
 import static songbox.house.util.RetryUtil.DEFAULT_RETRIES;
+import static songbox.house.util.RetryUtil.getOptionalWithHedging;
+import static songbox.house.util.RetryUtil.getOptionalWithProxyRetries;
 import static songbox.house.util.RetryUtil.getOptionalWithRetries;
+import static songbox.house.util.RetryUtil.getOptionalWithRetriesAsync;
 
 @Slf4j
 public class DownloadUtil {
-    private static final int DEFAULT_CONNECT_TIMEOUT = 10_000;
-    private static final int DEFAULT_READ_TIMEOUT = 10_000;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long MIN_SEGMENT_SIZE = 256 * 1024;
+    private static final long JOURNAL_SAVE_BYTES = 1024 * 1024;
+    // Until the latency of the host is known
+    private static final long HEDGE_DELAY_MS = 2000;
+    // HttpURLConnection has no constant for it
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
+    // Direct buffer per thread: FileChannel writes it without copying to a temporary native buffer
+    private static final ThreadLocal<ByteBuffer> BUFFER = ThreadLocal.withInitial(() ->
+            ByteBuffer.allocateDirect(BUFFER_SIZE));
+
+    private static volatile DownloadClient client = new DownloadClient();
+    private static volatile DownloadLimiter limiter = DownloadLimiter.NONE;
+    private static volatile DownloadCache cache;
+
+    private static final SingleFlight<String, Optional<byte[]>> BYTES_IN_FLIGHT = new SingleFlight<>();
+
+    /**
+     * Replaces the client of all downloads, e.g. with other timeouts.
+     */
+    public static void setClient(DownloadClient downloadClient) {
+        client = downloadClient;
+    }
+
+    public static DownloadClient getClient() {
+        return client;
+    }
+
+    /**
+     * Enables disk cache of {@link #downloadBytes} and {@link #downloadTo(String, Path, Proxy, long, long)}, null
+     * disables it.
+     */
+    public static void setCache(DownloadCache downloadCache) {
+        cache = downloadCache;
+    }
+
+    /**
+     * Sets limits of connections per host and proxy and of download speed for all downloads, no limits by default.
+     */
+    public static void setLimiter(DownloadLimiter downloadLimiter) {
+        limiter = downloadLimiter;
+    }
 
     public static Optional<byte[]> downloadBytes(String url) {
-        return download(url, null, -1, -1);
+        return downloadBytes(url, null, -1, -1);
     }
 
+    /**
+     * Concurrent calls of the same URL and range share one download, each caller gets its own array: the caller
+     * which started the download gets the downloaded one, the others get copies.
+     */
     public static Optional<byte[]> downloadBytes(String url, Proxy proxy, long bytesStart, long bytesEnd) {
-        return download(url, proxy, bytesStart, bytesEnd);
+        final DownloadCache downloadCache = cache;
+        if (nonNull(downloadCache)) {
+            return downloadCache.getOrFetch(cacheKey(url, bytesStart, bytesEnd),
+                    tmp -> streamTo(url, tmp, proxy, bytesStart, bytesEnd))
+                    .map(DownloadUtil::toBytes);
+        }
+        return BYTES_IN_FLIGHT.execute(cacheKey(url, bytesStart, bytesEnd),
+                () -> download(url, proxy, hasRange(bytesStart, bytesEnd), bytesStart, bytesEnd), DownloadUtil::copy);
+    }
+
+    /**
+     * Same as {@link #downloadBytes(String, Proxy, long, long)}, but the range may start from the first byte.
+     *
+     * @param bytesStart first byte, from 0
+     * @param bytesEnd   last byte, inclusive
+     */
+    public static Optional<byte[]> downloadRange(String url, Proxy proxy, long bytesStart, long bytesEnd) {
+        if (bytesStart < 0 || bytesEnd < bytesStart) {
+            throw new IllegalArgumentException("Invalid range " + bytesStart + "-" + bytesEnd);
+        }
+        final String key = DownloadCache.key(url, bytesStart, bytesEnd);
+        final DownloadCache downloadCache = cache;
+        if (nonNull(downloadCache)) {
+            return downloadCache.getOrFetch(key, tmp -> {
+                try (FileChannel channel = FileChannel.open(tmp, WRITE)) {
+                    return stream(url, channel, proxy, true, bytesStart, bytesEnd);
+                } catch (IOException e) {
+                    log.warn("Can't write {} to {}", url, tmp, e);
+                    return empty();
+                }
+            }).map(DownloadUtil::toBytes);
+        }
+        return BYTES_IN_FLIGHT.execute(key, () -> download(url, proxy, true, bytesStart, bytesEnd), DownloadUtil::copy);
+    }
+
+    /**
+     * @return full length of the file by a one byte range request, empty if server doesn't tell it
+     */
+    public static Optional<Long> probeLength(String url, Proxy proxy) {
+        return getOptionalWithRetries(DownloadUtil::doProbe, url, proxy, DEFAULT_RETRIES, "probe_length",
+                breaker("probe_length", url))
+                .map(DownloadJournal::getLength)
+                .filter(length -> length >= 0);
+    }
+
+    /**
+     * Same as {@link #downloadBytes(String, Proxy, long, long)}, but every retry goes through another healthy proxy
+     * of the pool.
+     */
+    public static Optional<byte[]> downloadBytesViaProxies(String url, ProxyPool proxyPool, long bytesStart,
+            long bytesEnd) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final StreamContext streamContext = new StreamContext(Channels.newChannel(out), null,
+                hasRange(bytesStart, bytesEnd), bytesStart, bytesEnd);
+        return getOptionalWithProxyRetries((context, proxy) -> doStream(url, context.withProxy(proxy)), streamContext,
+                proxyPool, DEFAULT_RETRIES, "download_bytes", breaker("download_bytes", url))
+                .map(written -> out.toByteArray());
+    }
+
+    /**
+     * Same as {@link #downloadTo(String, Path, Proxy, long, long)}, but every retry goes through another healthy
+     * proxy of the pool.
+     */
+    public static Optional<Long> downloadToViaProxies(String url, Path path, ProxyPool proxyPool, long bytesStart,
+            long bytesEnd) {
+        try (FileChannel channel = FileChannel.open(path, CREATE, WRITE, TRUNCATE_EXISTING)) {
+            final StreamContext streamContext = new StreamContext(channel, null, hasRange(bytesStart, bytesEnd),
+                    bytesStart, bytesEnd);
+            return getOptionalWithProxyRetries((context, proxy) -> doStream(url, context.withProxy(proxy)),
+                    streamContext, proxyPool, DEFAULT_RETRIES, "download_stream",
+                    breaker("download_stream", url));
+        } catch (IOException e) {
+            log.warn("Can't write {} to {}", url, path, e);
+            return empty();
+        }
+    }
+
+    /**
+     * Same as {@link #downloadBytesViaProxies}, but when the download is slower than usual the same download is
+     * started through another proxy and the first one to finish wins, see {@link RetryUtil#getOptionalWithHedging}.
+     * Each attempt is a single request without retries.
+     */
+    public static Optional<byte[]> downloadBytesHedged(String url, ProxyPool proxyPool, int maxHedges,
+            long bytesStart, long bytesEnd) {
+        final boolean range = hasRange(bytesStart, bytesEnd);
+        return getOptionalWithHedging(proxy -> {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            return doStream(url, new StreamContext(Channels.newChannel(out), proxy, range, bytesStart, bytesEnd))
+                    .map(written -> out.toByteArray());
+        }, proxyPool, maxHedges, HEDGE_DELAY_MS, "download_bytes", AsyncExecutor.INSTANCE);
+    }
+
+    public static CompletableFuture<Optional<byte[]>> downloadBytesAsync(String url) {
+        return downloadBytesAsync(url, null, -1, -1);
+    }
+
+    public static CompletableFuture<Optional<byte[]>> downloadBytesAsync(String url, Proxy proxy, long bytesStart,
+            long bytesEnd) {
+        return downloadBytesAsync(url, proxy, bytesStart, bytesEnd, AsyncExecutor.INSTANCE);
+    }
+
+    /**
+     * Same as {@link #downloadBytes(String, Proxy, long, long)}, but attempts run on the executor and retries are
+     * scheduled on a timer, so the caller and the pool aren't blocked between attempts. Java 8 has no non-blocking
+     * HTTP client, so each attempt still holds a pool thread while reading. Cancelling the returned future stops
+     * retries once all callers sharing the download cancelled theirs.
+     */
+    public static CompletableFuture<Optional<byte[]>> downloadBytesAsync(String url, Proxy proxy, long bytesStart,
+            long bytesEnd, Executor executor) {
+        return BYTES_IN_FLIGHT.executeAsync(cacheKey(url, bytesStart, bytesEnd), () -> {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final StreamContext streamContext = new StreamContext(Channels.newChannel(out), proxy,
+                    hasRange(bytesStart, bytesEnd), bytesStart, bytesEnd);
+            return thenApply(getOptionalWithRetriesAsync(DownloadUtil::doStream, url, streamContext, DEFAULT_RETRIES,
+                    "download_bytes", breaker("download_bytes", url), executor),
+                    written -> written.map(bytes -> out.toByteArray()));
+        }, DownloadUtil::copy);
+    }
+
+    /**
+     * Async version of {@link #downloadTo(String, WritableByteChannel, Proxy, long, long)}, the channel is written
+     * by one thread at a time and isn't closed.
+     */
+    public static CompletableFuture<Optional<Long>> downloadToAsync(String url, WritableByteChannel channel,
+            Proxy proxy, long bytesStart, long bytesEnd, Executor executor) {
+        final StreamContext streamContext = new StreamContext(channel, proxy, hasRange(bytesStart, bytesEnd),
+                bytesStart, bytesEnd);
+        return getOptionalWithRetriesAsync(DownloadUtil::doStream, url, streamContext, DEFAULT_RETRIES,
+                "download_stream", breaker("download_stream", url), executor);
+    }
+
+    public static Optional<Long> downloadTo(String url, Path path) {
+        return downloadTo(url, path, null, -1, -1);
+    }
+
+    /**
+     * Streams response body to the file without keeping it in memory.
+     *
+     * @return number of written bytes, empty if download failed in all retries
+     */
+    public static Optional<Long> downloadTo(String url, Path path, Proxy proxy, long bytesStart, long bytesEnd) {
+        final DownloadCache downloadCache = cache;
+        if (nonNull(downloadCache)) {
+            return downloadCache.getOrFetch(cacheKey(url, bytesStart, bytesEnd),
+                    tmp -> streamTo(url, tmp, proxy, bytesStart, bytesEnd))
+                    .flatMap(body -> write(body, path));
+        }
+        return streamTo(url, path, proxy, bytesStart, bytesEnd);
+    }
+
+    private static Optional<Long> streamTo(String url, Path path, Proxy proxy, long bytesStart, long bytesEnd) {
+        try (FileChannel channel = FileChannel.open(path, CREATE, WRITE, TRUNCATE_EXISTING)) {
+            return downloadTo(url, channel, proxy, bytesStart, bytesEnd);
+        } catch (IOException e) {
+            log.warn("Can't write {} to {}", url, path, e);
+            return empty();
+        }
+    }
+
+    /**
+     * Streams response body to the channel without keeping it in memory. Retry continues from the last written
+     * byte with a range request instead of downloading everything again.
+     *
+     * @return number of written bytes, empty if download failed in all retries
+     */
+    public static Optional<Long> downloadTo(String url, WritableByteChannel channel, Proxy proxy, long bytesStart,
+            long bytesEnd) {
+        return stream(url, channel, proxy, hasRange(bytesStart, bytesEnd), bytesStart, bytesEnd);
+    }
+
+    public static Optional<Long> downloadSegmented(String url, Path path, Proxy proxy, int segments) {
+        final ExecutorService executor = ExecutorUtil.createExecutorService(segments);
+        try {
+            return downloadSegmented(url, path, proxy, segments, executor);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Downloads the file by {@code segments} range requests in parallel, for hosts which throttle each connection.
+     * Every segment is written to its place of preallocated file and retried separately, resuming from its last
+     * written byte. Falls back to one stream if the server doesn't support ranges or the file is small.
+     * <p>
+     * Progress is kept in {@link DownloadJournal} next to the file, so a failed download continues from it on the
+     * next call with the same path, even after restart.
+     *
+     * @return file length, empty if length can't be probed or any of segments failed in all retries
+     */
+    public static Optional<Long> downloadSegmented(String url, Path path, Proxy proxy, int segments,
+            ExecutorService executor) {
+        return downloadJournaled(url, path, proxy, segments, executor);
+    }
+
+    /**
+     * Same as {@link #downloadTo(String, Path, Proxy, long, long)} of the whole file, but continues the previous
+     * failed download to this path from its {@link DownloadJournal}.
+     *
+     * @return file length, empty if download failed in all retries
+     */
+    public static Optional<Long> downloadResumable(String url, Path path, Proxy proxy) {
+        return downloadJournaled(url, path, proxy, 1, null);
+    }
+
+    private static Optional<Long> downloadJournaled(String url, Path path, Proxy proxy, int segments,
+            ExecutorService executor) {
+        final AtomicBoolean changed = new AtomicBoolean();
+        final Optional<Long> downloaded = downloadJournaled(url, path, proxy, segments, executor, changed);
+        if (!changed.get()) {
+            return downloaded;
+        }
+        // Journal of the previous version is already dropped, so the new one is downloaded from the start
+        log.info("{} was changed since the download started, downloading it again", url);
+        return downloadJournaled(url, path, proxy, segments, executor, new AtomicBoolean());
+    }
+
+    private static Optional<Long> downloadJournaled(String url, Path path, Proxy proxy, int segments,
+            ExecutorService executor, AtomicBoolean changed) {
+        final Optional<DownloadJournal> probed = getOptionalWithRetries(DownloadUtil::doProbe, url, proxy,
+                DEFAULT_RETRIES, "probe_length", breaker("probe_length", url));
+        if (!probed.isPresent()) {
+            return empty();
+        }
+        if (probed.get().getLength() < 0) {
+            // Ranges aren't supported, nothing to resume
+            return downloadTo(url, path, proxy, -1, -1);
+        }
+
+        final Path journalPath = DownloadJournal.journalPath(path);
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            final long length = probed.get().getLength();
+            if (length == 0) {
+                file.setLength(0);
+                Files.deleteIfExists(journalPath);
+                return of(0L);
+            }
+            final Optional<DownloadJournal> saved = DownloadJournal.load(journalPath)
+                    .filter(probed.get()::isSameResource);
+            final DownloadJournal journal;
+            if (saved.isPresent() && file.length() == length) {
+                journal = saved.get();
+                log.debug("Resuming download of {} to {}", url, path);
+            } else {
+                journal = probed.get();
+                journal.split((int) Math.max(1, Math.min(segments, length / MIN_SEGMENT_SIZE)));
+                file.setLength(length);
+                journal.save(journalPath);
+            }
+
+            final FileChannel channel = file.getChannel();
+            final List<Callable<Optional<Long>>> tasks = new ArrayList<>();
+            for (DownloadJournal.Segment segment : journal.getSegments()) {
+                if (!segment.isComplete()) {
+                    tasks.add(() -> stream(url, channel, proxy, journal, journalPath, segment, changed));
+                }
+            }
+            if (isNull(executor) || tasks.size() < 2) {
+                for (Callable<Optional<Long>> task : tasks) {
+                    task.call();
+                }
+            } else {
+                for (Future<Optional<Long>> future : executor.invokeAll(tasks)) {
+                    future.get();
+                }
+            }
+
+            if (changed.get()) {
+                Files.deleteIfExists(journalPath);
+                return empty();
+            }
+            if (journal.isComplete()) {
+                Files.deleteIfExists(journalPath);
+                return of(length);
+            }
+            journal.save(journalPath);
+            return empty();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Interrupted while downloading {}", url);
+            return empty();
+        } catch (Exception e) {
+            log.warn("Can't download {} to {}", url, path, e);
+            return empty();
+        }
     }
 
-    private static Optional<byte[]> download(String urlStr, Proxy proxy, long bytesStart, long bytesEnd) {
-        DownloadContext downloadContext = new DownloadContext(proxy, bytesStart, bytesEnd);
-        return getOptionalWithRetries(DownloadUtil::doDownload, urlStr, downloadContext, DEFAULT_RETRIES, "download_bytes");
+    private static Optional<Long> stream(String url, WritableByteChannel channel, Proxy proxy, boolean range,
+            long bytesStart, long bytesEnd) {
+        StreamContext streamContext = new StreamContext(channel, proxy, range, bytesStart, bytesEnd);
+        return getOptionalWithRetries(DownloadUtil::doStream, url, streamContext, DEFAULT_RETRIES,
+                "download_stream", breaker("download_stream", url));
     }
 
-    private static Optional<byte[]> doDownload(String urlStr, DownloadContext context) {
+    private static Optional<Long> stream(String url, FileChannel channel, Proxy proxy, DownloadJournal journal,
+            Path journalPath, DownloadJournal.Segment segment, AtomicBoolean changed) {
+        final long position = segment.getStart() + segment.getWritten();
+        StreamContext streamContext = new StreamContext(new PositionedChannel(channel, position), proxy, true,
+                segment.getStart(), segment.getEnd());
+        streamContext.journal = journal;
+        streamContext.journalPath = journalPath;
+        streamContext.segment = segment;
+        streamContext.written = segment.getWritten();
+        streamContext.saved = segment.getWritten();
+        streamContext.changed = changed;
+        return getOptionalWithRetries(DownloadUtil::doStream, url, streamContext, DEFAULT_RETRIES,
+                "download_stream", breaker("download_stream", url));
+    }
+
+    /**
+     * Body is collected in memory, retries continue from the last received byte like for streams.
+     */
+    private static Optional<byte[]> download(String urlStr, Proxy proxy, boolean range, long bytesStart,
+            long bytesEnd) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StreamContext streamContext = new StreamContext(Channels.newChannel(out), proxy, range, bytesStart, bytesEnd);
+        return getOptionalWithRetries(DownloadUtil::doStream, urlStr, streamContext, DEFAULT_RETRIES,
+                "download_bytes", breaker("download_bytes", urlStr))
+                .map(written -> out.toByteArray());
+    }
+
+    /**
+     * @return journal with full length of the file from "Content-Range" of one byte request and validators of the
+     * resource; length is -1 if server doesn't support ranges
+     */
+    private static Optional<DownloadJournal> doProbe(String urlStr, Proxy proxy) {
+        final DownloadClient downloadClient = client;
+        DownloadLimiter.Permit permit = null;
+        HttpURLConnection connection = null;
         try {
             final URL url = new URL(urlStr);
-            final HttpURLConnection connection = getConnection(url, context.proxy);
-            if (context.start > 0 && context.end > 0 && context.end > context.start) {
-                connection.setRequestProperty("range", "bytes=" + context.start + "-" + context.end);
+            permit = limiter.acquire(url, proxy);
+            connection = downloadClient.open(url, proxy);
+            connection.setRequestProperty("range", "bytes=0-0");
+            // Range of an empty file isn't satisfiable, the response tells its length as "bytes */0"
+            final boolean notSatisfiable = connection.getResponseCode() == HTTP_RANGE_NOT_SATISFIABLE;
+            final InputStream inputStream = notSatisfiable ? connection.getErrorStream() : connection.getInputStream();
+            final String contentRange = connection.getHeaderField("Content-Range");
+            long length = -1;
+            if ((connection.getResponseCode() == HTTP_PARTIAL || notSatisfiable) && nonNull(contentRange)) {
+                final String total = contentRange.substring(contentRange.lastIndexOf('/') + 1).trim();
+                length = "*".equals(total) ? -1 : Long.parseLong(total);
             }
-            final InputStream inputStream = connection.getInputStream();
-            final byte[] bytes = toByteArray(inputStream);
-            return of(bytes);
+            final DownloadJournal journal = new DownloadJournal(urlStr, length, connection.getHeaderField("ETag"),
+                    connection.getHeaderField("Last-Modified"));
+            downloadClient.release(connection, proxy, inputStream);
+            return of(journal);
         } catch (Exception e) {
             log.debug("Retryable exception", e);
+            if (nonNull(connection)) {
+                downloadClient.fail(connection, proxy);
+            }
+            return empty();
+        } finally {
+            if (nonNull(permit)) {
+                permit.close();
+            }
+        }
+    }
+
+    private static Optional<Long> doStream(String urlStr, StreamContext context) {
+        final DownloadClient downloadClient = client;
+        final DownloadLimiter downloadLimiter = limiter;
+        final boolean range = context.range;
+        final long from = (range ? context.start : 0) + context.written;
+        DownloadLimiter.Permit permit = null;
+        HttpURLConnection connection = null;
+        try {
+            final URL url = new URL(urlStr);
+            permit = downloadLimiter.acquire(url, context.proxy);
+            connection = downloadClient.open(url, context.proxy);
+            if (range || context.written > 0) {
+                connection.setRequestProperty("range", "bytes=" + from + "-" + (range ? context.end : ""));
+            }
+            if (nonNull(context.journal) && nonNull(context.journal.getValidator())) {
+                connection.setRequestProperty("If-Range", context.journal.getValidator());
+            }
+            final InputStream inputStream = connection.getInputStream();
+            if (nonNull(context.journal) && connection.getResponseCode() != HTTP_PARTIAL) {
+                // Written bytes are of another version of the resource, every retry would get the same response, so
+                // the attempt ends the retries and the download starts again without the journal
+                context.changed.set(true);
+                downloadClient.fail(connection, context.proxy);
+                return of(context.written);
+            }
+            final ReadableByteChannel in = Channels.newChannel(inputStream);
+            // Server may ignore the range, then bytes before it are skipped
+            long skip = connection.getResponseCode() == HTTP_PARTIAL ? 0 : from;
+            long left = range ? context.end - from + 1 : Long.MAX_VALUE;
+            long received = 0;
+            int read;
+            final ByteBuffer buffer = BUFFER.get();
+            buffer.clear();
+            while (left > 0 && (read = in.read(buffer)) != -1) {
+                downloadLimiter.throttle(read);
+                received += read;
+                buffer.flip();
+                if (skip > 0) {
+                    final int skipped = (int) Math.min(skip, buffer.remaining());
+                    buffer.position(buffer.position() + skipped);
+                    skip -= skipped;
+                }
+                if (buffer.remaining() > left) {
+                    buffer.limit(buffer.position() + (int) left);
+                }
+                while (buffer.hasRemaining()) {
+                    final int written = context.channel.write(buffer);
+                    context.written += written;
+                    left -= written;
+                }
+                context.journal(false);
+                buffer.clear();
+            }
+            final long contentLength = connection.getContentLengthLong();
+            if (left > 0 && contentLength >= 0 && received < contentLength) {
+                throw new IOException("Connection closed after " + received + " of " + contentLength + " bytes");
+            }
+            downloadClient.release(connection, context.proxy, inputStream);
+            context.journal(true);
+            return of(context.written);
+        } catch (Exception e) {
+            log.debug("Retryable exception, {} bytes of {} written", context.written, urlStr, e);
+            if (nonNull(connection)) {
+                downloadClient.fail(connection, context.proxy);
+            }
+            return empty();
+        } finally {
+            if (nonNull(permit)) {
+                permit.close();
+            }
+        }
+    }
+
+    /**
+     * Key of the circuit breaker of the operation with the host of the url, e.g. download_bytes@host, so the breaker
+     * of a failing host doesn't stop downloads from other hosts. Logs keep the name of the operation. Breakers are
+     * used only if enabled by {@link RetryUtil#setCircuitBreakers} or registered for the host.
+     */
+    private static String breaker(String name, String url) {
+        try {
+            return name + "@" + new URL(url).getHost();
+        } catch (MalformedURLException e) {
+            return name;
+        }
+    }
+
+    private static String cacheKey(String url, long bytesStart, long bytesEnd) {
+        return hasRange(bytesStart, bytesEnd) ? DownloadCache.key(url, bytesStart, bytesEnd) : url;
+    }
+
+    private static Optional<byte[]> copy(Optional<byte[]> bytes) {
+        return bytes.map(byte[]::clone);
+    }
+
+    /**
+     * Same as {@link CompletableFuture#thenApply}, but cancelling the result cancels the source, e.g. retries.
+     */
+    private static <T, R> CompletableFuture<R> thenApply(CompletableFuture<T> source, Function<T, R> function) {
+        final CompletableFuture<R> result = source.thenApply(function);
+        result.whenComplete((value, error) -> {
+            if (result.isCancelled()) {
+                source.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    private static byte[] toBytes(ByteBuffer body) {
+        final byte[] bytes = new byte[body.remaining()];
+        body.get(bytes);
+        return bytes;
+    }
+
+    private static Optional<Long> write(ByteBuffer body, Path path) {
+        try (FileChannel channel = FileChannel.open(path, CREATE, WRITE, TRUNCATE_EXISTING)) {
+            final long length = body.remaining();
+            while (body.hasRemaining()) {
+                channel.write(body);
+            }
+            return of(length);
+        } catch (IOException e) {
+            log.warn("Can't write cached body to {}", path, e);
             return empty();
         }
     }
 
-    private static class DownloadContext {
-        final Proxy proxy;
+    private static boolean hasRange(long start, long end) {
+        return start > 0 && end > 0 && end > start;
+    }
+
+    // Created on the first async download, not a ThreadChange pool as it's called from the retry timer too
+    private static final class AsyncExecutor {
+        static final ExecutorService INSTANCE = ExecutorUtil.createDaemonExecutorService("async-download", 16);
+    }
+
+    private static class StreamContext {
+        final WritableByteChannel channel;
+        Proxy proxy;
+        final boolean range;
         final long start;
         final long end;
+        long written;
+        DownloadJournal journal;
+        Path journalPath;
+        DownloadJournal.Segment segment;
+        long saved;
+        AtomicBoolean changed;
 
-        private DownloadContext(Proxy proxy, long start, long end) {
+        private StreamContext(WritableByteChannel channel, Proxy proxy, boolean range, long start, long end) {
+            this.channel = channel;
             this.proxy = proxy;
+            this.range = range;
             this.start = start;
             this.end = end;
         }
+
+        StreamContext withProxy(Proxy attemptProxy) {
+            proxy = attemptProxy;
+            return this;
+        }
+
+        void journal(boolean force) {
+            if (nonNull(journal)) {
+                segment.setWritten(written);
+                if (force || written - saved >= JOURNAL_SAVE_BYTES) {
+                    journal.save(journalPath);
+                    saved = written;
+                }
+            }
+        }
     }
 
-    private static HttpURLConnection getConnection(URL url, Proxy proxy) throws IOException {
-        final HttpURLConnection connection = (HttpURLConnection) (nonNull(proxy) ? url.openConnection(proxy) : url.openConnection());
-        connection.setConnectTimeout(DEFAULT_CONNECT_TIMEOUT);
-        connection.setReadTimeout(DEFAULT_READ_TIMEOUT);
-        connection.setRequestProperty("User-Agent", "Mozilla/5.0 (X11; U; Linux i586; en-US; rv:1.7.3) Gecko/20040924 Epiphany/1.4.4 (Ubuntu)");
-        return connection;
+    /**
+     * Writes sequentially from the given position of file channel, several of them can share one channel
+     */
+    private static class PositionedChannel implements WritableByteChannel {
+        final FileChannel channel;
+        long position;
+
+        private PositionedChannel(FileChannel channel, long position) {
+            this.channel = channel;
+            this.position = position;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            final int written = channel.write(src, position);
+            position += written;
+            return written;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() {
+        }
     }
 }
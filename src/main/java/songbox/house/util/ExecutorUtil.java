@@ -1,6 +1,13 @@
 package songbox.house.util;
 
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
 
 public class ExecutorUtil {
     private static final int MAX_POOL_SIZE = 16;
@@ -9,4 +16,33 @@ public class ExecutorUtil {
         final int poolSize = (countThreads < 1) ? 1 : ((countThreads > MAX_POOL_SIZE) ? MAX_POOL_SIZE : countThreads);
         return ThreadChange.newFixedThreadPool(poolSize);
     }
+
+    /**
+     * Plain pool of daemon threads which stop after a minute without tasks, for internal pools kept in static fields.
+     * Tasks don't get {@link ThreadChange} context, so it suits pools which are called from timers.
+     */
+    public static ExecutorService createDaemonExecutorService(String threadName, int countThreads) {
+        final AtomicInteger threads = new AtomicInteger();
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(countThreads, countThreads, 1, MINUTES,
+                new LinkedBlockingQueue<>(), runnable -> {
+            final Thread thread = new Thread(runnable, threadName + "-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * @return single daemon thread for timers, cancelled tasks are removed from its queue at once
+     */
+    public static ScheduledExecutorService createScheduledExecutorService(String threadName) {
+        final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            final Thread thread = new Thread(runnable, threadName);
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
 }
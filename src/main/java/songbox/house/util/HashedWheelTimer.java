@@ -0,0 +1,162 @@
+package songbox.house.util;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import static java.lang.System.nanoTime;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Timer for very many short delayed tasks like retries. Scheduling and cancelling is O(1) and takes no lock: a task
+ * is put to a lock-free queue, then the timer thread moves it to the bucket of its tick on a wheel and runs it when
+ * the wheel comes to that tick. Tasks run late by up to one tick and on the timer thread, so they have to be short,
+ * e.g. submit the real work to an executor.
+ */
+@Slf4j
+public final class HashedWheelTimer {
+
+    private static final int PENDING = 0;
+    private static final int CANCELLED = 1;
+    private static final int EXPIRED = 2;
+
+    private final long tickNanos;
+    private final int mask;
+    private final List<ArrayDeque<Timeout>> wheel;
+    private final Queue<Timeout> added = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final long startNanos;
+    private final Thread worker;
+    private volatile boolean stopped;
+
+    /**
+     * Starts the timer daemon thread.
+     *
+     * @param tickMs        precision of the timer
+     * @param ticksPerWheel rounded up to a power of 2, delays longer than a round of the wheel take more rounds
+     */
+    public HashedWheelTimer(String threadName, long tickMs, int ticksPerWheel) {
+        this.tickNanos = MILLISECONDS.toNanos(Math.max(1, tickMs));
+        final int size = Integer.highestOneBit(Math.max(2, ticksPerWheel) - 1) << 1;
+        this.mask = size - 1;
+        this.wheel = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            wheel.add(new ArrayDeque<>());
+        }
+        this.startNanos = nanoTime();
+        this.worker = new Thread(this::run, threadName);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        if (stopped) {
+            throw new RejectedExecutionException("Timer is stopped");
+        }
+        final Timeout timeout = new Timeout(task, nanoTime() + unit.toNanos(Math.max(0, delay)));
+        pending.incrementAndGet();
+        added.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * @return tasks scheduled and not run or cancelled yet
+     */
+    public int pending() {
+        return pending.get();
+    }
+
+    /**
+     * Stops the timer thread, pending tasks are never run.
+     */
+    public void stop() {
+        stopped = true;
+        worker.interrupt();
+    }
+
+    private void run() {
+        long tick = 0;
+        while (!stopped) {
+            final long tickEnd = startNanos + (tick + 1) * tickNanos;
+            for (long sleep = tickEnd - nanoTime(); sleep > 0 && !stopped; sleep = tickEnd - nanoTime()) {
+                LockSupport.parkNanos(this, sleep);
+            }
+            transferAdded(tick);
+            expire(wheel.get((int) (tick & mask)));
+            tick++;
+        }
+    }
+
+    private void transferAdded(long tick) {
+        for (Timeout timeout = added.poll(); timeout != null; timeout = added.poll()) {
+            if (timeout.state.get() != PENDING) {
+                continue;
+            }
+            final long deadlineTick = (timeout.deadlineNanos - startNanos) / tickNanos;
+            timeout.rounds = (deadlineTick - tick) / wheel.size();
+            // Already late ones run in this tick
+            wheel.get((int) (Math.max(deadlineTick, tick) & mask)).add(timeout);
+        }
+    }
+
+    private void expire(ArrayDeque<Timeout> bucket) {
+        for (Iterator<Timeout> iterator = bucket.iterator(); iterator.hasNext(); ) {
+            final Timeout timeout = iterator.next();
+            if (timeout.state.get() != PENDING) {
+                iterator.remove();
+            } else if (timeout.rounds > 0) {
+                timeout.rounds--;
+            } else {
+                iterator.remove();
+                if (timeout.state.compareAndSet(PENDING, EXPIRED)) {
+                    pending.decrementAndGet();
+                    try {
+                        timeout.task.run();
+                    } catch (Throwable e) {
+                        log.warn("Timer task failed", e);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Handle of a scheduled task.
+     */
+    public final class Timeout {
+        private final Runnable task;
+        private final long deadlineNanos;
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+        // Accessed by the timer thread only
+        private long rounds;
+
+        private Timeout(Runnable task, long deadlineNanos) {
+            this.task = task;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        /**
+         * @return false if the task is already run or cancelled
+         */
+        public boolean cancel() {
+            if (state.compareAndSet(PENDING, CANCELLED)) {
+                pending.decrementAndGet();
+                return true;
+            }
+            return false;
+        }
+
+        public boolean isCancelled() {
+            return state.get() == CANCELLED;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package songbox.house.util;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.lang.Thread.currentThread;
+
+/**
+ * Records latencies from many threads into {@link LatencyHistogram} stripes picked by thread id, so threads rarely
+ * increment the same counters. The reader drains all stripes to one histogram of the interval since the previous
+ * drain.
+ */
+public final class LatencyRecorder {
+
+    private static final int STRIPES = Math.min(8,
+            Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() - 1)) << 1);
+
+    private final LatencyHistogram[] stripes = new LatencyHistogram[STRIPES];
+    private final LongAdder errors = new LongAdder();
+
+    public LatencyRecorder() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new LatencyHistogram();
+        }
+    }
+
+    public void record(long nanos, boolean error) {
+        stripes[(int) (currentThread().getId() & (STRIPES - 1))].record(nanos);
+        if (error) {
+            errors.increment();
+        }
+    }
+
+    /**
+     * Moves latencies recorded since the previous drain to the histogram.
+     *
+     * @return errors recorded since the previous drain
+     */
+    public long drainTo(LatencyHistogram interval) {
+        for (LatencyHistogram stripe : stripes) {
+            stripe.drainTo(interval);
+        }
+        return errors.sumThenReset();
+    }
+}
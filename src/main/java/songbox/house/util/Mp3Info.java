@@ -0,0 +1,20 @@
+package songbox.house.util;
+
+import lombok.Data;
+
+/**
+ * Bitrate and duration of an MP3 file read from its headers by {@link BitRateProbe}.
+ */
+@Data
+public final class Mp3Info implements BitRateDuration {
+    /**
+     * Exact bitrate in kbps, average one for VBR files
+     */
+    private final Short bitRate;
+    /**
+     * Null if it can't be known from the headers and file length
+     */
+    private final Integer durationSec;
+    private final boolean vbr;
+    private final int sampleRate;
+}
@@ -1,19 +1,61 @@
 package songbox.house.util;
 
+import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.Signature;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
 import org.aspectj.lang.annotation.Pointcut;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.stereotype.Component;
 
-import static java.lang.System.currentTimeMillis;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static java.lang.System.nanoTime;
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static songbox.house.util.Constants.PERFORMANCE_MARKER;
 
+/**
+ * Records duration of {@link Measurable} methods to a histogram per method and logs a summary of each one every
+ * {@code songbox.performance.publishIntervalSec} seconds: calls, throughput, p50/p90/p99/max and errors. A line per
+ * call is logged only for a {@code songbox.performance.sampleRate} part of calls, none by default.
+ */
 @Aspect
 @Component
 @Slf4j
-public class PerformanceLoggingAspect {
+public class PerformanceLoggingAspect implements DisposableBean {
+
+    private static final long PUBLISH_INTERVAL_SEC = Long.getLong("songbox.performance.publishIntervalSec", 60);
+    private static final double SAMPLE_RATE =
+            Double.parseDouble(System.getProperty("songbox.performance.sampleRate", "0"));
+
+    private final ConcurrentMap<Object, Stats> stats = new ConcurrentHashMap<>();
+    private final double sampleRate;
+    private final ScheduledExecutorService publisher;
+    private long publishedNanos = nanoTime();
+
+    public PerformanceLoggingAspect() {
+        this(PUBLISH_INTERVAL_SEC, SAMPLE_RATE);
+    }
+
+    /**
+     * @param sampleRate part of calls logged one by one, from 0 for none to 1 for all
+     */
+    public PerformanceLoggingAspect(long publishIntervalSec, double sampleRate) {
+        this.sampleRate = sampleRate;
+        this.publisher = ExecutorUtil.createScheduledExecutorService("performance-publisher");
+        publisher.scheduleAtFixedRate(this::publishSafely, publishIntervalSec, publishIntervalSec, SECONDS);
+    }
 
     @Pointcut("@annotation(songbox.house.util.Measurable)")
     public void performanceLog() {
@@ -21,14 +63,104 @@ public class PerformanceLoggingAspect {
 
     @Around("performanceLog()")
     public Object profile(ProceedingJoinPoint pjp) throws Throwable {
-        final long start = currentTimeMillis();
+        final long start = nanoTime();
         try {
             Object output = pjp.proceed();
-            log.info(PERFORMANCE_MARKER, "{} - {}ms", pjp.getSignature().toShortString(), currentTimeMillis() - start);
+            record(pjp, nanoTime() - start, null);
             return output;
         } catch (Throwable e) {
-            log.info(PERFORMANCE_MARKER, "{} - {}ms with exception '{}'", pjp.getSignature().toShortString(), currentTimeMillis() - start, e.getMessage());
+            record(pjp, nanoTime() - start, e);
             throw e;
         }
     }
+
+    @Override
+    public void destroy() {
+        publisher.shutdown();
+        publishSafely();
+    }
+
+    /**
+     * Logs and returns summaries of the methods called since the previous publish.
+     */
+    synchronized List<Summary> publish() {
+        final long now = nanoTime();
+        final double seconds = Math.max(1, now - publishedNanos) / 1e9;
+        publishedNanos = now;
+
+        final List<Summary> summaries = new ArrayList<>();
+        for (Stats methodStats : stats.values()) {
+            // Only the publisher uses the interval histogram
+            methodStats.interval.reset();
+            final long errors = methodStats.recorder.drainTo(methodStats.interval);
+            final LatencyHistogram interval = methodStats.interval;
+            if (interval.getTotalCount() == 0) {
+                continue;
+            }
+            final Summary summary = new Summary(methodStats.name, interval.getTotalCount(), errors,
+                    interval.getTotalCount() / seconds, interval.getValueAtPercentile(50),
+                    interval.getValueAtPercentile(90), interval.getValueAtPercentile(99), interval.getMax());
+            log.info(PERFORMANCE_MARKER, "{} - {} calls, {}/s, p50 {}ms, p90 {}ms, p99 {}ms, max {}ms, {} errors",
+                    summary.getSignature(), summary.getCount(), String.format("%.2f", summary.getThroughput()),
+                    toMs(summary.getP50Nanos()), toMs(summary.getP90Nanos()), toMs(summary.getP99Nanos()),
+                    toMs(summary.getMaxNanos()), summary.getErrors());
+            summaries.add(summary);
+        }
+        return summaries;
+    }
+
+    private void record(ProceedingJoinPoint pjp, long nanos, Throwable error) {
+        final Stats methodStats = getStats(pjp.getSignature());
+        methodStats.recorder.record(nanos, nonNull(error));
+        if (sampleRate > 0 && (sampleRate >= 1 || ThreadLocalRandom.current().nextDouble() < sampleRate)) {
+            if (isNull(error)) {
+                log.info(PERFORMANCE_MARKER, "{} - {}ms", methodStats.name, NANOSECONDS.toMillis(nanos));
+            } else {
+                log.info(PERFORMANCE_MARKER, "{} - {}ms with exception '{}'", methodStats.name,
+                        NANOSECONDS.toMillis(nanos), error.getMessage());
+            }
+        }
+    }
+
+    private Stats getStats(Signature signature) {
+        // Method is the same for every call, the signature object and its string are created per call
+        final Object key = signature instanceof MethodSignature
+                ? ((MethodSignature) signature).getMethod() : signature.toLongString();
+        final Stats existing = stats.get(key);
+        return isNull(existing) ? stats.computeIfAbsent(key, k -> new Stats(signature.toShortString())) : existing;
+    }
+
+    private void publishSafely() {
+        try {
+            publish();
+        } catch (RuntimeException e) {
+            log.warn("Can't publish performance summary", e);
+        }
+    }
+
+    private static String toMs(long nanos) {
+        return String.format("%.3f", nanos / 1e6);
+    }
+
+    private static final class Stats {
+        final String name;
+        final LatencyRecorder recorder = new LatencyRecorder();
+        final LatencyHistogram interval = new LatencyHistogram();
+
+        Stats(String name) {
+            this.name = name;
+        }
+    }
+
+    @Data
+    static final class Summary {
+        private final String signature;
+        private final long count;
+        private final long errors;
+        private final double throughput;
+        private final long p50Nanos;
+        private final long p90Nanos;
+        private final long p99Nanos;
+        private final long maxNanos;
+    }
 }
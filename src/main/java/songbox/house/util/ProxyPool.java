@@ -0,0 +1,228 @@
+package songbox.house.util;
+
+import lombok.Data;
+
+import java.net.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Proxies to spread requests over, with health of each: moving average of success rate and latency. A proxy which
+ * failed several times in a row is quarantined for a cooldown and isn't selected meanwhile, unless all proxies are.
+ * <p>
+ * Used by {@link RetryUtil#getOptionalWithProxyRetries} to take another proxy for each attempt.
+ */
+public final class ProxyPool {
+
+    public enum Selection {
+        /**
+         * Random proxy with probability proportional to success rate divided by latency
+         */
+        WEIGHTED_RANDOM,
+        /**
+         * Proxy with the lowest latency divided by success rate of the ones with success rate not lower than half of
+         * the best one. Latency of not measured yet proxies is the mean one, as for {@link #WEIGHTED_RANDOM}
+         */
+        LOWEST_LATENCY
+    }
+
+    public static final int DEFAULT_FAILURES_TO_QUARANTINE = 3;
+    public static final long DEFAULT_COOLDOWN_MS = 60_000;
+
+    // Weight of the last result in moving averages
+    private static final double ALPHA = 0.2;
+
+    private final List<ProxyState> proxies = new CopyOnWriteArrayList<>();
+    private final Selection selection;
+    private final int failuresToQuarantine;
+    private final long cooldownNanos;
+
+    public ProxyPool(Collection<Proxy> proxies) {
+        this(proxies, Selection.WEIGHTED_RANDOM, DEFAULT_FAILURES_TO_QUARANTINE, DEFAULT_COOLDOWN_MS);
+    }
+
+    public ProxyPool(Collection<Proxy> proxies, Selection selection, int failuresToQuarantine, long cooldownMs) {
+        this.selection = selection;
+        this.failuresToQuarantine = failuresToQuarantine;
+        this.cooldownNanos = MILLISECONDS.toNanos(cooldownMs);
+        proxies.forEach(this::add);
+    }
+
+    public void add(Proxy proxy) {
+        if (!find(proxy).isPresent()) {
+            proxies.add(new ProxyState(proxy));
+        }
+    }
+
+    public void remove(Proxy proxy) {
+        proxies.removeIf(state -> state.proxy.equals(proxy));
+    }
+
+    public int size() {
+        return proxies.size();
+    }
+
+    public Proxy select() {
+        return select(null);
+    }
+
+    /**
+     * @param previous proxy of the previous attempt, another one is selected if there is any healthy one
+     * @return selected proxy, null if the pool is empty
+     */
+    public Proxy select(Proxy previous) {
+        final long now = System.nanoTime();
+        final List<ProxyState> candidates = new ArrayList<>(proxies.size());
+        ProxyState soonestReleased = null;
+        for (ProxyState state : proxies) {
+            if (state.isAvailable(now)) {
+                if (!state.proxy.equals(previous)) {
+                    candidates.add(state);
+                }
+            } else if (soonestReleased == null || state.quarantinedUntil - soonestReleased.quarantinedUntil < 0) {
+                soonestReleased = state;
+            }
+        }
+        if (candidates.isEmpty()) {
+            final Proxy previousAvailable = find(previous).filter(state -> state.isAvailable(now))
+                    .map(state -> state.proxy).orElse(null);
+            if (previousAvailable != null) {
+                return previousAvailable;
+            }
+            // All are quarantined, the one to be released first is the best guess
+            return soonestReleased == null ? null : soonestReleased.proxy;
+        }
+        return selection == Selection.LOWEST_LATENCY ? lowestLatency(candidates) : weightedRandom(candidates);
+    }
+
+    public void success(Proxy proxy, long latencyMs) {
+        find(proxy).ifPresent(state -> state.success(latencyMs));
+    }
+
+    public void failure(Proxy proxy) {
+        find(proxy).ifPresent(state -> state.failure(failuresToQuarantine, cooldownNanos));
+    }
+
+    /**
+     * @return snapshot of health of every proxy
+     */
+    public Map<Proxy, ProxyHealth> getHealth() {
+        final long now = System.nanoTime();
+        final Map<Proxy, ProxyHealth> health = new HashMap<>();
+        for (ProxyState state : proxies) {
+            health.put(state.proxy, new ProxyHealth(state.successRate, state.latencyMs, !state.isAvailable(now)));
+        }
+        return health;
+    }
+
+    private Optional<ProxyState> find(Proxy proxy) {
+        for (ProxyState state : proxies) {
+            if (Objects.equals(state.proxy, proxy)) {
+                return Optional.of(state);
+            }
+        }
+        return Optional.empty();
+    }
+
+    private static Proxy weightedRandom(List<ProxyState> candidates) {
+        final double defaultLatency = meanLatency(candidates);
+        final double[] weights = new double[candidates.size()];
+        double total = 0;
+        for (int i = 0; i < weights.length; i++) {
+            total += candidates.get(i).weight(defaultLatency);
+            weights[i] = total;
+        }
+        final double random = ThreadLocalRandom.current().nextDouble() * total;
+        for (int i = 0; i < weights.length; i++) {
+            if (random < weights[i]) {
+                return candidates.get(i).proxy;
+            }
+        }
+        return candidates.get(weights.length - 1).proxy;
+    }
+
+    private static Proxy lowestLatency(List<ProxyState> candidates) {
+        final double defaultLatency = meanLatency(candidates);
+        double bestSuccessRate = 0;
+        for (ProxyState candidate : candidates) {
+            bestSuccessRate = Math.max(bestSuccessRate, candidate.successRate);
+        }
+        ProxyState best = null;
+        double bestWeight = 0;
+        for (ProxyState candidate : candidates) {
+            // Success rate divided by latency, so failures make a proxy slower
+            final double weight = candidate.weight(defaultLatency);
+            if (candidate.successRate >= bestSuccessRate / 2 && (best == null || weight > bestWeight)) {
+                best = candidate;
+                bestWeight = weight;
+            }
+        }
+        return best.proxy;
+    }
+
+    private static double meanLatency(List<ProxyState> candidates) {
+        double sum = 0;
+        int measured = 0;
+        for (ProxyState candidate : candidates) {
+            if (candidate.latencyMs > 0) {
+                sum += candidate.latencyMs;
+                measured++;
+            }
+        }
+        return measured == 0 ? 1 : sum / measured;
+    }
+
+    @Data
+    public static final class ProxyHealth {
+        private final double successRate;
+        private final double latencyMs;
+        private final boolean quarantined;
+    }
+
+    private static final class ProxyState {
+        final Proxy proxy;
+        volatile double successRate = 1;
+        // Zero until the first success
+        volatile double latencyMs;
+        volatile long quarantinedUntil;
+        volatile boolean quarantined;
+        int consecutiveFailures;
+
+        ProxyState(Proxy proxy) {
+            this.proxy = proxy;
+        }
+
+        boolean isAvailable(long now) {
+            return !quarantined || now - quarantinedUntil >= 0;
+        }
+
+        double weight(double defaultLatency) {
+            return successRate / Math.max(1, latencyMs > 0 ? latencyMs : defaultLatency);
+        }
+
+        synchronized void success(long latency) {
+            successRate = successRate * (1 - ALPHA) + ALPHA;
+            latencyMs = latencyMs > 0 ? latencyMs * (1 - ALPHA) + latency * ALPHA : Math.max(1, latency);
+            consecutiveFailures = 0;
+            quarantined = false;
+        }
+
+        synchronized void failure(int failuresToQuarantine, long cooldownNanos) {
+            successRate = successRate * (1 - ALPHA);
+            if (++consecutiveFailures >= failuresToQuarantine) {
+                consecutiveFailures = 0;
+                quarantinedUntil = System.nanoTime() + cooldownNanos;
+                quarantined = true;
+            }
+        }
+    }
+}
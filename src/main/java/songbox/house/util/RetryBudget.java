@@ -0,0 +1,50 @@
+package songbox.house.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket shared by retries of many calls: every call deposits {@code retryRatio} of a token, every retry takes
+ * one. While calls mostly succeed the bucket stays full, during an outage retries are limited to {@code retryRatio}
+ * of calls instead of multiplying the load by the number of attempts.
+ */
+public final class RetryBudget {
+
+    // Tokens are kept in thousandths to be counted by one atomic long
+    private static final long SCALE = 1000;
+
+    private final long deposit;
+    private final long maxTokens;
+    private final AtomicLong tokens;
+
+    /**
+     * @param retryRatio allowed retries per call, e.g. 0.1 for 10%
+     * @param maxTokens  retries which can be done at once after a quiet period
+     */
+    public RetryBudget(double retryRatio, int maxTokens) {
+        this.deposit = Math.round(retryRatio * SCALE);
+        this.maxTokens = maxTokens * SCALE;
+        this.tokens = new AtomicLong(this.maxTokens);
+    }
+
+    public void deposit() {
+        tokens.accumulateAndGet(deposit, (current, added) -> Math.min(maxTokens, current + added));
+    }
+
+    /**
+     * @return true if a retry is allowed and its token is taken
+     */
+    public boolean tryWithdraw() {
+        long current;
+        do {
+            current = tokens.get();
+            if (current < SCALE) {
+                return false;
+            }
+        } while (!tokens.compareAndSet(current, current - SCALE));
+        return true;
+    }
+
+    public double getTokens() {
+        return (double) tokens.get() / SCALE;
+    }
+}
@@ -0,0 +1,418 @@
+package songbox.house.util;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.IntToLongFunction;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import static java.lang.System.nanoTime;
+import static java.lang.Thread.currentThread;
+import static java.lang.Thread.sleep;
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+import static java.util.Optional.empty;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * How many times and after which delays a call is retried. Delay before retry {@code n} is {@code backoff(n)} capped
+ * by {@code maxDelayMs} and randomized by {@code jitter}, so callers failing at the same moment don't retry at the
+ * same moment. Retries stop when attempts or {@code maxElapsedMs} are over, on an exception which is not
+ * {@code retryable}, when the shared {@link RetryBudget} has no tokens left or when the {@link CircuitBreaker} is
+ * open.
+ * <pre>
+ * RetryPolicy policy = RetryPolicy.builder()
+ *         .maxAttempts(5)
+ *         .backoff(exponentialDelay(200, 2))
+ *         .retryable(e -&gt; e instanceof IOException)
+ *         .budget(budget)
+ *         .build();
+ * Optional&lt;byte[]&gt; bytes = policy.getOptional(() -&gt; download(url), "download");
+ * </pre>
+ */
+@Slf4j
+@Getter
+@Builder(toBuilder = true)
+public final class RetryPolicy {
+
+    public enum Jitter {
+        /**
+         * Exactly the backoff delay
+         */
+        NONE,
+        /**
+         * Random delay from 0 to the backoff delay
+         */
+        FULL,
+        /**
+         * Random delay from the first backoff delay to 3 times the previous delay
+         */
+        DECORRELATED
+    }
+
+    /**
+     * Attempts including the first one
+     */
+    @Builder.Default
+    private final int maxAttempts = RetryUtil.DEFAULT_RETRIES;
+    /**
+     * Delay in ms before retry by its number, starting from 1
+     */
+    @Builder.Default
+    private final IntToLongFunction backoff = exponentialDelay(100, 2);
+    @Builder.Default
+    private final long maxDelayMs = 30_000;
+    @Builder.Default
+    private final Jitter jitter = Jitter.FULL;
+    /**
+     * No retry is started if it would be after this time since the first attempt, 0 for no limit
+     */
+    @Builder.Default
+    private final long maxElapsedMs = 0;
+    @Builder.Default
+    private final Predicate<Throwable> retryable = e -> true;
+    /**
+     * Shared by all calls of the policy, null for no limit
+     */
+    private final RetryBudget budget;
+    /**
+     * Checked once before a call and told the outcome of the whole call, not of every attempt, null for none
+     */
+    private final CircuitBreaker circuitBreaker;
+
+    public static IntToLongFunction fixedDelay(long delayMs) {
+        return retry -> delayMs;
+    }
+
+    public static IntToLongFunction linearDelay(long delayMs, int multiplier) {
+        return retry -> delayMs * retry * multiplier;
+    }
+
+    public static IntToLongFunction exponentialDelay(long initialDelayMs, double multiplier) {
+        return retry -> (long) (initialDelayMs * Math.pow(multiplier, retry - 1));
+    }
+
+    /**
+     * Calls until the result is present. Exceptions are logged and retried as empty results.
+     */
+    public <T> Optional<T> getOptional(Supplier<Optional<T>> attempt, String operation) {
+        final Result<Optional<T>> result = run(attempt::get, Optional::isPresent, operation);
+        return result.isSuccess() ? result.getValue() : empty();
+    }
+
+    /**
+     * Calls until there is no exception.
+     *
+     * @throws Exception the last one if all attempts failed
+     */
+    public <T> T execute(Callable<T> attempt, String operation) throws Exception {
+        final Result<T> result = run(attempt, value -> true, operation);
+        if (nonNull(result.getException())) {
+            throw result.getException();
+        }
+        return result.getValue();
+    }
+
+    /**
+     * Async version of {@link #getOptional}: the next attempt is scheduled on a timer instead of sleeping, so no
+     * thread is held between attempts. The attempt has to start its work asynchronously, e.g. by
+     * {@link CompletableFuture#supplyAsync(Supplier, java.util.concurrent.Executor)}, as it's called on the timer
+     * thread. Cancelling the returned future stops retries and cancels the running attempt.
+     */
+    public <T> CompletableFuture<Optional<T>> getOptionalAsync(Supplier<CompletableFuture<Optional<T>>> attempt,
+            String operation) {
+        return runAsync(attempt, Optional::isPresent, Optional::empty, operation);
+    }
+
+    /**
+     * Async version of {@link #execute}: the returned future fails with the last exception if all attempts failed.
+     *
+     * @see #getOptionalAsync
+     */
+    public <T> CompletableFuture<T> executeAsync(Supplier<CompletableFuture<T>> attempt, String operation) {
+        return runAsync(attempt, value -> true, null, operation);
+    }
+
+    /**
+     * Delay before the retry after the previous one.
+     *
+     * @param previousDelayMs 0 before the first retry
+     */
+    public long delayMs(int retry, long previousDelayMs) {
+        final long delay = Math.min(maxDelayMs, Math.max(0, backoff.applyAsLong(retry)));
+        switch (jitter) {
+            case FULL:
+                return random(0, delay);
+            case DECORRELATED:
+                final long first = Math.min(maxDelayMs, Math.max(0, backoff.applyAsLong(1)));
+                final long previous = previousDelayMs > 0 ? previousDelayMs : first;
+                return Math.min(maxDelayMs, random(first, Math.max(first, Math.min(maxDelayMs / 3, previous) * 3)));
+            default:
+                return delay;
+        }
+    }
+
+    <T> Result<T> run(Callable<T> attempt, Predicate<? super T> accepted, String operation) {
+        if (nonNull(circuitBreaker) && !circuitBreaker.tryAcquire()) {
+            log.warn("Can't execute {}, circuit breaker {} is open", operation, circuitBreaker.getName());
+            return new Result<>(null, new CircuitBreaker.OpenException(circuitBreaker.getName()), 0, false);
+        }
+        final Result<T> result = retry(attempt, accepted, operation);
+        onResult(result.isSuccess());
+        return result;
+    }
+
+    private <T> Result<T> retry(Callable<T> attempt, Predicate<? super T> accepted, String operation) {
+        if (nonNull(budget)) {
+            budget.deposit();
+        }
+        final long startNanos = nanoTime();
+        long delay = 0;
+        for (int attempts = 1; ; attempts++) {
+            T value = null;
+            Exception exception = null;
+            try {
+                value = attempt.call();
+                if (accepted.test(value)) {
+                    return new Result<>(value, null, attempts, true);
+                }
+            } catch (Exception e) {
+                exception = e;
+                if (!retryable.test(e)) {
+                    log.warn("Can't execute {}, exception is not retryable", operation, e);
+                    return new Result<>(null, e, attempts, false);
+                }
+                log.debug("Retryable exception", e);
+            }
+
+            if (attempts >= maxAttempts) {
+                log.warn("Can't execute {} in {} tries", operation, attempts, exception);
+                return new Result<>(value, exception, attempts, false);
+            }
+            delay = delayMs(attempts, delay);
+            final long elapsedMs = NANOSECONDS.toMillis(nanoTime() - startNanos);
+            if (maxElapsedMs > 0 && elapsedMs + delay > maxElapsedMs) {
+                log.warn("Can't execute {} in {}ms, {} tries", operation, elapsedMs, attempts, exception);
+                return new Result<>(value, exception, attempts, false);
+            }
+            if (nonNull(budget) && !budget.tryWithdraw()) {
+                log.warn("Can't execute {} in {} tries, retry budget is exhausted", operation, attempts, exception);
+                return new Result<>(value, exception, attempts, false);
+            }
+            log.debug("Retry {}, {} - sleeping {}ms", attempts, operation, delay);
+            if (!doSleep(delay)) {
+                return new Result<>(value, exception, attempts, false);
+            }
+        }
+    }
+
+    /**
+     * @param fallback result if all attempts failed, null to fail with the last exception
+     */
+    <T> CompletableFuture<T> runAsync(Supplier<CompletableFuture<T>> attempt, Predicate<? super T> accepted,
+            Supplier<T> fallback, String operation) {
+        final AsyncRun<T> run = new AsyncRun<>(attempt, accepted, fallback, operation);
+        if (nonNull(circuitBreaker) && !circuitBreaker.tryAcquire()) {
+            log.warn("Can't execute {}, circuit breaker {} is open", operation, circuitBreaker.getName());
+            run.fail(new CircuitBreaker.OpenException(circuitBreaker.getName()));
+            return run.result;
+        }
+        if (nonNull(budget)) {
+            budget.deposit();
+        }
+        run.attempt();
+        return run.result;
+    }
+
+    /**
+     * @return timer of async retries, shared with other delayed calls like hedges
+     */
+    static HashedWheelTimer timer() {
+        return Timer.INSTANCE;
+    }
+
+    private void onResult(boolean success) {
+        if (nonNull(circuitBreaker)) {
+            if (success) {
+                circuitBreaker.onSuccess();
+            } else {
+                circuitBreaker.onFailure();
+            }
+        }
+    }
+
+    private static long random(long from, long to) {
+        return to > from ? ThreadLocalRandom.current().nextLong(from, to) : from;
+    }
+
+    private static boolean doSleep(long ms) {
+        if (ms > 0) {
+            try {
+                sleep(ms);
+            } catch (InterruptedException e) {
+                log.warn("Interrupted while sleeping", e);
+                currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * State of {@link #runAsync}. Attempts run one after another, each one is started by the completion of the
+     * previous one or by the timer.
+     */
+    private final class AsyncRun<T> {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        final Supplier<CompletableFuture<T>> attempt;
+        final Predicate<? super T> accepted;
+        final Supplier<T> fallback;
+        final String operation;
+        final long startNanos = nanoTime();
+        volatile int attempts;
+        volatile long delay;
+        volatile CompletableFuture<T> running;
+        volatile HashedWheelTimer.Timeout timeout;
+
+        AsyncRun(Supplier<CompletableFuture<T>> attempt, Predicate<? super T> accepted, Supplier<T> fallback,
+                String operation) {
+            this.attempt = attempt;
+            this.accepted = accepted;
+            this.fallback = fallback;
+            this.operation = operation;
+            result.whenComplete((value, error) -> {
+                if (result.isCancelled()) {
+                    cancel();
+                }
+            });
+        }
+
+        void attempt() {
+            if (result.isDone()) {
+                return;
+            }
+            attempts++;
+            CompletableFuture<T> future;
+            try {
+                future = attempt.get();
+            } catch (RuntimeException e) {
+                future = new CompletableFuture<>();
+                future.completeExceptionally(e);
+            }
+            running = future;
+            if (result.isCancelled()) {
+                future.cancel(true);
+            }
+            future.whenComplete(this::onAttempt);
+        }
+
+        void onAttempt(T value, Throwable error) {
+            final Throwable exception = error instanceof CompletionException && nonNull(error.getCause())
+                    ? error.getCause() : error;
+            if (result.isDone() || exception instanceof CancellationException) {
+                // Cancelled by the caller or by a hedge which won: not a failure of the operation, nothing to retry
+                result.cancel(false);
+                return;
+            }
+            if (isNull(exception) && accepted.test(value)) {
+                onResult(true);
+                result.complete(value);
+                return;
+            }
+            if (nonNull(exception)) {
+                if (!retryable.test(exception)) {
+                    log.warn("Can't execute {}, exception is not retryable", operation, exception);
+                    giveUp(exception);
+                    return;
+                }
+                log.debug("Retryable exception", exception);
+            }
+
+            if (attempts >= maxAttempts) {
+                log.warn("Can't execute {} in {} tries", operation, attempts, exception);
+                giveUp(exception);
+                return;
+            }
+            delay = delayMs(attempts, delay);
+            final long elapsedMs = NANOSECONDS.toMillis(nanoTime() - startNanos);
+            if (maxElapsedMs > 0 && elapsedMs + delay > maxElapsedMs) {
+                log.warn("Can't execute {} in {}ms, {} tries", operation, elapsedMs, attempts, exception);
+                giveUp(exception);
+                return;
+            }
+            if (nonNull(budget) && !budget.tryWithdraw()) {
+                log.warn("Can't execute {} in {} tries, retry budget is exhausted", operation, attempts, exception);
+                giveUp(exception);
+                return;
+            }
+            log.debug("Retry {}, {} - scheduled in {}ms", attempts, operation, delay);
+            try {
+                timeout = Timer.INSTANCE.schedule(this::attempt, delay, MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                giveUp(e);
+                return;
+            }
+            if (result.isCancelled()) {
+                cancel();
+            }
+        }
+
+        void giveUp(Throwable exception) {
+            onResult(false);
+            fail(exception);
+        }
+
+        void fail(Throwable exception) {
+            if (nonNull(fallback)) {
+                result.complete(fallback.get());
+            } else {
+                result.completeExceptionally(nonNull(exception) ? exception
+                        : new IllegalStateException("Can't execute " + operation + " in " + attempts + " tries"));
+            }
+        }
+
+        void cancel() {
+            final HashedWheelTimer.Timeout scheduled = timeout;
+            if (nonNull(scheduled)) {
+                scheduled.cancel();
+            }
+            final CompletableFuture<T> future = running;
+            if (nonNull(future)) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    // Created on the first async retry
+    private static final class Timer {
+        static final HashedWheelTimer INSTANCE = new HashedWheelTimer("retry-timer", 10, 512);
+    }
+
+    /**
+     * Outcome of {@link #run}: the accepted value, or the last value and exception after all attempts.
+     */
+    @Getter
+    static final class Result<T> {
+        private final T value;
+        private final Exception exception;
+        private final int attempts;
+        private final boolean success;
+
+        Result(T value, Exception exception, int attempts, boolean success) {
+            this.value = value;
+            this.exception = exception;
+            this.attempts = attempts;
+            this.success = success;
+        }
+    }
+}
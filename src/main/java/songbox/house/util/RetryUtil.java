@@ -1,117 +1,217 @@
 package songbox.house.util;
 
 import lombok.extern.slf4j.Slf4j;
-import org.slf4j.Logger;
+import songbox.house.util.RetryPolicy.Jitter;
+import songbox.house.util.RetryPolicy.Result;
 
+import java.net.Proxy;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.IntToLongFunction;
+import java.util.function.Supplier;
 
 import static java.lang.System.currentTimeMillis;
+import static java.lang.System.nanoTime;
 import static java.lang.Thread.currentThread;
-import static java.lang.Thread.sleep;
 import static java.util.Objects.isNull;
 import static java.util.Objects.nonNull;
 import static java.util.Optional.empty;
-import static org.slf4j.LoggerFactory.getLogger;
+import static java.util.concurrent.CompletableFuture.supplyAsync;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static songbox.house.util.Constants.PERFORMANCE_MARKER;
+import static songbox.house.util.RetryPolicy.fixedDelay;
+import static songbox.house.util.RetryPolicy.linearDelay;
 
 @Slf4j
 public final class RetryUtil {
 
-    private static final Logger LOGGER = getLogger(RetryUtil.class);
-
     public static final int DEFAULT_RETRIES = 10;
     private static final int DEFAULT_SLEEP_MS = 500;
 
+    private static final double HEDGE_PERCENTILE = 95;
+    private static final int HEDGE_MIN_CALLS = 20;
+    private static final int LATENCY_WINDOW = 1000;
+    private static final ConcurrentMap<String, Latencies> LATENCIES = new ConcurrentHashMap<>();
+
+    private static volatile RetryBudget retryBudget;
+    private static volatile boolean circuitBreakers;
+
     private RetryUtil() {
     }
 
-    public static <T, R> Optional<R> getOptionalWithRetries(final Function<T, Optional<R>> function, final T input,
-            final int maxRetries, final String operation) {
-        final long startMs = currentTimeMillis();
-        int retries = 0;
-        Optional<R> result;
-        do {
-            if (retries != 0) {
-                log.debug("Retry {}, {}", retries, operation);
-            }
-            try {
-                result = function.apply(input);
-            } catch (Exception e) {
-                log.debug("Retryable exception", e);
-                result = empty();
-            }
-        } while (!result.isPresent() && ++retries < maxRetries);
-
-        if (result.isPresent()) {
-            log.debug(PERFORMANCE_MARKER, "Executed {} in {} retries, time {}ms",
-                    operation, retries, currentTimeMillis() - startMs);
-        } else {
-            log.warn("Can't execute {} in {} tries", operation, retries);
-        }
+    /**
+     * Sets the budget shared by retries of all methods of this class, null for no limit. During an outage it keeps
+     * retries to a part of calls instead of multiplying load by the number of attempts.
+     */
+    public static void setRetryBudget(RetryBudget budget) {
+        retryBudget = budget;
+    }
 
+    /**
+     * Enables the circuit breaker of every named operation of this class and of {@link DownloadUtil}, see
+     * {@link CircuitBreaker#forOperation}. Disabled by default: only operations with a breaker added by
+     * {@link CircuitBreaker#register} fail fast.
+     */
+    public static void setCircuitBreakers(boolean enabled) {
+        circuitBreakers = enabled;
+    }
 
-        return result;
+    public static <T, R> Optional<R> getOptionalWithRetries(final Function<T, Optional<R>> function, final T input,
+            final int maxRetries, final String operation) {
+        return getOptionalWithPerformanceLog(policy(maxRetries, fixedDelay(0), operation),
+                () -> function.apply(input), operation);
     }
 
     public static <T, R> Optional<R> getOptionalWithRetriesWithProgressiveDelay(final Function<T, Optional<R>> function,
             final T input, final int maxRetries, int sleepMs, int delayMultiplier, final String operation) {
-
-        final long startMs = currentTimeMillis();
-        int retries = 0;
-        Optional<R> result;
-        do {
-            if (retries != 0) {
-                int sleep = sleepMs * withMultipliedDelay(retries, delayMultiplier);
-                log.debug("Retry {}, {} - sleeping {}ms", retries, operation, sleep);
-                doSleep(sleep);
-            }
-            try {
-                result = function.apply(input);
-            } catch (Exception e) {
-                log.debug("Retryable exception", e);
-                result = empty();
-            }
-        } while (!result.isPresent() && ++retries < maxRetries);
-
-        if (result.isPresent()) {
-            log.debug(PERFORMANCE_MARKER, "Executed {} in {} retries, time {}ms",
-                    operation, retries, currentTimeMillis() - startMs);
-        } else {
-            log.warn("Can't execute {} in {} tries", operation, retries);
-        }
-
-
-        return result;
+        return getOptionalWithPerformanceLog(policy(maxRetries, linearDelay(sleepMs, delayMultiplier), operation),
+                () -> function.apply(input), operation);
     }
 
     public static <T, E, R> Optional<R> getOptionalWithRetries(final BiFunction<T, E, Optional<R>> function,
             final T input1, final E input2, final int maxRetries, final String operation) {
-        int retries = 0;
-        Optional<R> result;
-        Throwable lastException = null;
-        do {
-            if (retries != 0) {
-                log.debug("Retry {}, {}", retries, operation);
-            }
+        return getOptionalWithRetries(function, input1, input2, maxRetries, operation, operation);
+    }
+
+    /**
+     * Same as {@link #getOptionalWithRetries(BiFunction, Object, Object, int, String)}, but the circuit breaker is
+     * looked up by its own key, e.g. one per host, while logs keep the name of the operation.
+     */
+    static <T, E, R> Optional<R> getOptionalWithRetries(final BiFunction<T, E, Optional<R>> function,
+            final T input1, final E input2, final int maxRetries, final String operation, final String breaker) {
+        return policy(maxRetries, fixedDelay(0), breaker)
+                .getOptional(() -> function.apply(input1, input2), operation);
+    }
+
+    /**
+     * Same as {@link #getOptionalWithRetries(BiFunction, Object, Object, int, String)}, but each attempt goes through
+     * another proxy of the pool if there is a healthy one. Result and duration of every attempt are recorded to the
+     * pool, so failing proxies get quarantined and slow ones are selected less often.
+     */
+    public static <T, R> Optional<R> getOptionalWithProxyRetries(final BiFunction<T, Proxy, Optional<R>> function,
+            final T input, final ProxyPool proxyPool, final int maxRetries, final String operation) {
+        return getOptionalWithProxyRetries(function, input, proxyPool, maxRetries, operation, operation);
+    }
+
+    /**
+     * Same as {@link #getOptionalWithProxyRetries(BiFunction, Object, ProxyPool, int, String)} with the circuit
+     * breaker of its own key.
+     */
+    static <T, R> Optional<R> getOptionalWithProxyRetries(final BiFunction<T, Proxy, Optional<R>> function,
+            final T input, final ProxyPool proxyPool, final int maxRetries, final String operation,
+            final String breaker) {
+        final Proxy[] proxy = {null};
+        return policy(maxRetries, fixedDelay(0), breaker).getOptional(() -> {
+            proxy[0] = proxyPool.select(proxy[0]);
+            final long startNanos = nanoTime();
+            Optional<R> result;
             try {
-                result = function.apply(input1, input2);
+                result = function.apply(input, proxy[0]);
             } catch (Exception e) {
-                lastException = e;
-                log.debug("Retryable exception", e);
+                log.debug("Retryable exception through {}", proxy[0], e);
                 result = empty();
             }
-        } while (!result.isPresent() && ++retries < maxRetries);
-
-        if (!result.isPresent()) {
-            log.warn("Can't execute {} in {} tries", operation, retries, lastException);
+            if (result.isPresent()) {
+                proxyPool.success(proxy[0], NANOSECONDS.toMillis(nanoTime() - startNanos));
+            } else {
+                proxyPool.failure(proxy[0]);
+            }
+            return result;
+        }, operation);
+    }
+
+    /**
+     * Async version of {@link #getOptionalWithRetries(BiFunction, Object, Object, int, String)}: attempts run on the
+     * executor and the next one is scheduled on a timer after a progressive delay instead of sleeping, so no thread
+     * is held between attempts. Cancelling the returned future stops retries.
+     */
+    public static <T, E, R> CompletableFuture<Optional<R>> getOptionalWithRetriesAsync(
+            final BiFunction<T, E, Optional<R>> function, final T input1, final E input2, final int maxRetries,
+            final String operation, final Executor executor) {
+        return getOptionalWithRetriesAsync(function, input1, input2, maxRetries, operation, operation, executor);
+    }
+
+    /**
+     * Same as {@link #getOptionalWithRetriesAsync(BiFunction, Object, Object, int, String, Executor)} with the
+     * circuit breaker of its own key.
+     */
+    static <T, E, R> CompletableFuture<Optional<R>> getOptionalWithRetriesAsync(
+            final BiFunction<T, E, Optional<R>> function, final T input1, final E input2, final int maxRetries,
+            final String operation, final String breaker, final Executor executor) {
+        return policy(maxRetries, linearDelay(DEFAULT_SLEEP_MS, 1), breaker)
+                .getOptionalAsync(() -> supplyAsync(() -> function.apply(input1, input2), executor), operation);
+    }
+
+    /**
+     * Retries the attempt by the policy without holding a thread between attempts, see
+     * {@link RetryPolicy#executeAsync}.
+     */
+    public static <T> CompletableFuture<T> retryAsync(final Supplier<CompletableFuture<T>> attempt,
+            final RetryPolicy policy, final String operation) {
+        return policy.executeAsync(attempt, operation);
+    }
+
+    /**
+     * Hedged requests: if the first attempt isn't done after the hedge delay, the next one is started in parallel,
+     * through another proxy of the pool if there is one, up to {@code maxHedges} extra attempts. A failed attempt
+     * starts the next one at once. The first present result wins and the other attempts are cancelled.
+     * <p>
+     * Hedge delay is 95th percentile of the latency of the operation when enough calls are done, so only the slowest
+     * 5% of calls are hedged, {@code hedgeDelayMs} before that.
+     *
+     * @param proxyPool null to call without proxy
+     */
+    public static <R> Optional<R> getOptionalWithHedging(final Function<Proxy, Optional<R>> function,
+            final ProxyPool proxyPool, final int maxHedges, final long hedgeDelayMs, final String operation,
+            final ExecutorService executor) {
+        final CompletableFuture<Optional<R>> result = getOptionalWithHedgingAsync(function, proxyPool, maxHedges,
+                hedgeDelayMs, operation, executor);
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            result.cancel(true);
+            currentThread().interrupt();
+            return empty();
+        } catch (ExecutionException e) {
+            log.warn("Can't execute {}", operation, e);
+            return empty();
         }
+    }
 
-        return result;
+    /**
+     * Async version of {@link #getOptionalWithHedging}, cancelling the returned future cancels all attempts.
+     */
+    public static <R> CompletableFuture<Optional<R>> getOptionalWithHedgingAsync(
+            final Function<Proxy, Optional<R>> function, final ProxyPool proxyPool, final int maxHedges,
+            final long hedgeDelayMs, final String operation, final ExecutorService executor) {
+        final Hedge<R> hedge = new Hedge<>(function, proxyPool, 1 + Math.max(0, maxHedges),
+                getHedgeDelayMs(operation, hedgeDelayMs), operation, executor);
+        hedge.launch();
+        return hedge.result;
+    }
+
+    /**
+     * @return 95th percentile of the latency of hedged calls of the operation, the default until there are enough
+     */
+    public static long getHedgeDelayMs(final String operation, final long defaultMs) {
+        final Latencies latencies = LATENCIES.get(operation);
+        return nonNull(latencies) ? latencies.getPercentileMs(HEDGE_PERCENTILE, defaultMs) : defaultMs;
     }
 
     public static <T, R> Optional<R> getOptionalWithDefaultRetries(final Function<T, Optional<R>> function,
@@ -164,6 +264,18 @@ public final class RetryUtil {
                 RetryUtil::withMultipliedDelay, delayMultiplier, maxRetries);
     }
 
+    /**
+     * Async version of {@link #executeWithRetryOnExceptionWithProgressiveDelay(Function, Object, Object, int, int,
+     * int)}: attempts run on the executor and wait for the next one on a timer, not in a sleeping thread.
+     */
+    public static <T, R> CompletableFuture<T> executeWithRetryOnExceptionWithProgressiveDelayAsync(
+            Function<R, T> function, R input, T defaultValue, int sleepMs, int delayMultiplier, int maxRetries,
+            Executor executor) {
+        return policy(maxRetries + 1, linearDelay(sleepMs, delayMultiplier), null)
+                .runAsync(() -> supplyAsync(() -> function.apply(input), executor), result -> true,
+                        () -> defaultValue, "function for input " + input);
+    }
+
     public static <T, R> T executeWithRetryThrowingException(Function<R, T> function, R input, T defaultValue) {
         return executeWithRetryThrowingException(function, input, defaultValue, DEFAULT_RETRIES);
     }
@@ -176,55 +288,28 @@ public final class RetryUtil {
     public static <T, R, U> U executeWithRetryThrowingException(BiFunction<R, T, U> function, R input1, T input2,
             U defaultValue,
             int maxRetries) {
-        int retries = 0;
-        boolean needRetry;
-        U result = defaultValue;
-        Exception lastException = null;
-        do {
-            try {
-                result = function.apply(input1, input2);
-                needRetry = false;
-                lastException = null;
-            } catch (Exception e) {
-                lastException = e;
-                LOGGER.debug("Retryable exception", e);
-                needRetry = retries++ < maxRetries;
-                if (needRetry) {
-                    doSleep(DEFAULT_SLEEP_MS * retries);
-                } else {
-                    LOGGER.warn("Can't execute function in {} retries for input {}, {}", retries, input1, input2);
-                }
-            }
-        } while (needRetry);
-
-        if (nonNull(lastException)) {
-            throw new RuntimeException(lastException);
-        }
+        return getOrThrow(policy(maxRetries + 1, linearDelay(DEFAULT_SLEEP_MS, 1), null)
+                .run(() -> function.apply(input1, input2), result -> true,
+                        "function for input " + input1 + ", " + input2));
+    }
 
-        return result;
+    /**
+     * Same as {@link #executeWithRetryThrowingException(BiFunction, Object, Object, Object, int)}, but fails fast
+     * with {@link CircuitBreaker.OpenException} as a cause while the circuit breaker of the operation is open, see
+     * {@link #setCircuitBreakers}.
+     */
+    public static <T, R, U> U executeWithRetryThrowingException(BiFunction<R, T, U> function, R input1, T input2,
+            int maxRetries, String operation) {
+        return getOrThrow(policy(maxRetries + 1, linearDelay(DEFAULT_SLEEP_MS, 1), operation)
+                .run(() -> function.apply(input1, input2), result -> true, operation));
     }
 
     public static <T, R, U> T executeWithRetryOnException(BiFunction<R, U, T> function, R input1, U input2,
             T defaultValue, int maxRetries) {
-        int retries = 0;
-        boolean needRetry;
-        T result = defaultValue;
-        do {
-            try {
-                result = function.apply(input1, input2);
-                needRetry = false;
-            } catch (Exception e) {
-                LOGGER.debug("Retryable exception", e);
-                needRetry = retries++ < maxRetries;
-                if (needRetry) {
-                    doSleep(DEFAULT_SLEEP_MS * retries);
-                } else {
-                    LOGGER.warn("Can't execute function in {} retries for input {}|{}", retries, input1, input2);
-                }
-            }
-        } while (needRetry);
-
-        return result;
+        final Result<T> result = policy(maxRetries + 1, linearDelay(DEFAULT_SLEEP_MS, 1), null)
+                .run(() -> function.apply(input1, input2), value -> true,
+                        "function for input " + input1 + "|" + input2);
+        return result.isSuccess() ? result.getValue() : defaultValue;
     }
 
     public static <T, R> List<T> executeWithRetryOnException(BiFunction<R, R, List<T>> function, R input1, R input2,
@@ -244,32 +329,19 @@ public final class RetryUtil {
 
     public static <T, R> T executeWithRetryThrowingException(Function<R, T> function, R input, T defaultValue,
             int maxRetries, int sleepMs) {
-        int retries = 0;
-        boolean needRetry;
-        T result = defaultValue;
-        Exception lastException = null;
-        do {
-            try {
-                result = function.apply(input);
-                needRetry = false;
-                lastException = null;
-            } catch (Exception e) {
-                lastException = e;
-                LOGGER.debug("Retryable exception", e);
-                needRetry = retries++ < maxRetries;
-                if (needRetry) {
-                    doSleep(sleepMs * retries);
-                } else {
-                    LOGGER.warn("Can't execute function in {} retries for input {}", retries, input);
-                }
-            }
-        } while (needRetry);
-
-        if (nonNull(lastException)) {
-            throw new RuntimeException(lastException);
-        }
+        return getOrThrow(policy(maxRetries + 1, linearDelay(sleepMs, 1), null)
+                .run(() -> function.apply(input), result -> true, "function for input " + input));
+    }
 
-        return result;
+    /**
+     * Same as {@link #executeWithRetryThrowingException(Function, Object, Object, int, int)}, but fails fast with
+     * {@link CircuitBreaker.OpenException} as a cause while the circuit breaker of the operation is open, see
+     * {@link #setCircuitBreakers}.
+     */
+    public static <T, R> T executeWithRetryThrowingException(Function<R, T> function, R input, int maxRetries,
+            int sleepMs, String operation) {
+        return getOrThrow(policy(maxRetries + 1, linearDelay(sleepMs, 1), operation)
+                .run(() -> function.apply(input), result -> true, operation));
     }
 
     public static <T, R> List<T> executeWithRetryOnException(Function<R, List<T>> function, R input, int maxRetries) {
@@ -299,46 +371,65 @@ public final class RetryUtil {
     private static <T, R> T executeWithRetryOnExceptionOrNullWithProgressiveDelay(Function<R, T> function, R input,
             T defaultValue, int sleepMs, BiFunction<Integer, Integer, Integer> delayFunction, int delayMultiplier,
             int maxRetries, boolean checkForNull) {
-
-        int retries = 0;
-        boolean fail;
-        T result = defaultValue;
-        do {
-            try {
-                result = function.apply(input);
-                fail = checkForNull && isNull(result);
-            } catch (Exception e) {
-                LOGGER.warn("Exception on {} retry", retries, e);
-                fail = true;
-            }
-            if (!fail) {
-                return result;
-            } else if (retries++ < maxRetries) {
-                doSleep(sleepMs * delayFunction.apply(retries, delayMultiplier));
-            } else {
-                return defaultValue;
-            }
-        } while (true);
+        final Result<T> result = policy(maxRetries + 1,
+                retry -> (long) sleepMs * delayFunction.apply(retry, delayMultiplier), null)
+                .run(() -> function.apply(input), value -> !checkForNull || nonNull(value),
+                        "function for input " + input);
+        return result.isSuccess() ? result.getValue() : defaultValue;
     }
 
     private static <T> void executeWithRetryOnExceptionWithProgressiveDelay(Consumer<T> consumer, T input,
             int sleepMs, BiFunction<Integer, Integer, Integer> delayFunction, int delayMultiplier,
             int maxRetries) {
+        policy(maxRetries + 1, retry -> (long) sleepMs * delayFunction.apply(retry, delayMultiplier), null)
+                .run(() -> {
+                    consumer.accept(input);
+                    return null;
+                }, result -> true, "function for input " + input);
+    }
+
+    /**
+     * Policy of the methods of this class: delays without jitter as they were before {@link RetryPolicy}, so callers
+     * relying on them wait as long as before, the shared budget and the circuit breaker of the operation if it's
+     * named and breakers are enabled or registered.
+     *
+     * @param breaker key of the circuit breaker, usually the name of the operation
+     */
+    private static RetryPolicy policy(int maxAttempts, IntToLongFunction backoff, String breaker) {
+        return RetryPolicy.builder()
+                .maxAttempts(maxAttempts)
+                .backoff(backoff)
+                .maxDelayMs(Long.MAX_VALUE)
+                .jitter(Jitter.NONE)
+                .budget(retryBudget)
+                .circuitBreaker(circuitBreaker(breaker))
+                .build();
+    }
+
+    private static CircuitBreaker circuitBreaker(String breaker) {
+        if (isNull(breaker)) {
+            return null;
+        }
+        return circuitBreakers ? CircuitBreaker.forOperation(breaker) : CircuitBreaker.getRegistered(breaker);
+    }
 
-        int retries = 0;
-        boolean needRetry;
-        do {
-            try {
-                consumer.accept(input);
-                needRetry = false;
-            } catch (Exception e) {
-                LOGGER.warn("Exception on {} retry", retries, e);
-                needRetry = retries++ < maxRetries;
-                if (needRetry) {
-                    doSleep(sleepMs * delayFunction.apply(retries, delayMultiplier));
-                }
-            }
-        } while (needRetry);
+    private static <R> Optional<R> getOptionalWithPerformanceLog(RetryPolicy policy, Supplier<Optional<R>> attempt,
+            String operation) {
+        final long startMs = currentTimeMillis();
+        final Result<Optional<R>> result = policy.run(attempt::get, Optional::isPresent, operation);
+        if (!result.isSuccess()) {
+            return empty();
+        }
+        log.debug(PERFORMANCE_MARKER, "Executed {} in {} retries, time {}ms",
+                operation, result.getAttempts() - 1, currentTimeMillis() - startMs);
+        return result.getValue();
+    }
+
+    private static <T> T getOrThrow(Result<T> result) {
+        if (nonNull(result.getException())) {
+            throw new RuntimeException(result.getException());
+        }
+        return result.getValue();
     }
 
     private static Integer withoutDelay(Integer retry, Integer delayMultiplier) {
@@ -353,18 +444,161 @@ public final class RetryUtil {
         return function::apply;
     }
 
-    private static void doSleep(int ms) {
-        if (ms > 0) {
+    private static <T> List<T> newArrayList() {
+        return new ArrayList<>();
+    }
+
+    /**
+     * Attempts of one hedged call. Each attempt reports its result from the executor thread, the next hedge is
+     * started by the timer or by a failed attempt.
+     */
+    private static final class Hedge<R> {
+        final CompletableFuture<Optional<R>> result = new CompletableFuture<>();
+        final Function<Proxy, Optional<R>> function;
+        final ProxyPool proxyPool;
+        final int maxAttempts;
+        final long delayMs;
+        final String operation;
+        final ExecutorService executor;
+        final AtomicInteger launched = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        final Queue<Attempt> running = new ConcurrentLinkedQueue<>();
+        volatile Proxy lastProxy;
+        volatile HashedWheelTimer.Timeout timeout;
+
+        Hedge(Function<Proxy, Optional<R>> function, ProxyPool proxyPool, int maxAttempts, long delayMs,
+                String operation, ExecutorService executor) {
+            this.function = function;
+            this.proxyPool = proxyPool;
+            this.maxAttempts = maxAttempts;
+            this.delayMs = delayMs;
+            this.operation = operation;
+            this.executor = executor;
+            result.whenComplete((value, error) -> cancelAll());
+        }
+
+        void launch() {
+            int attempt;
+            do {
+                attempt = launched.get();
+                if (attempt >= maxAttempts || result.isDone()) {
+                    return;
+                }
+            } while (!launched.compareAndSet(attempt, attempt + 1));
+
+            final Proxy proxy = nonNull(proxyPool) ? proxyPool.select(lastProxy) : null;
+            lastProxy = proxy;
+            if (attempt > 0) {
+                log.debug("Hedge {}, {} through {}", attempt, operation, proxy);
+            }
+            final Attempt started = new Attempt(proxy);
             try {
-                sleep(ms);
-            } catch (InterruptedException ex) {
-                LOGGER.warn("Interrupted while sleeping", ex);
-                currentThread().interrupt();
+                started.future = executor.submit(started);
+            } catch (RejectedExecutionException e) {
+                log.debug("Hedge of {} is rejected", operation, e);
+                complete(proxy, started.startNanos, empty());
+                return;
+            }
+            running.add(started);
+            if (attempt + 1 < maxAttempts) {
+                timeout = RetryPolicy.timer().schedule(this::launch, delayMs, MILLISECONDS);
+            }
+            if (result.isDone()) {
+                cancelAll();
+            }
+        }
+
+        Optional<R> call(Proxy proxy) {
+            try {
+                return function.apply(proxy);
+            } catch (Exception e) {
+                log.debug("Retryable exception", e);
+                return empty();
+            }
+        }
+
+        void complete(Proxy proxy, long startNanos, Optional<R> value) {
+            if (result.isDone()) {
+                // Cancelled loser, its failure says nothing about the proxy
+                return;
+            }
+            final long latencyNanos = nanoTime() - startNanos;
+            if (nonNull(proxyPool)) {
+                if (value.isPresent()) {
+                    proxyPool.success(proxy, NANOSECONDS.toMillis(latencyNanos));
+                } else {
+                    proxyPool.failure(proxy);
+                }
+            }
+            if (value.isPresent()) {
+                if (result.complete(value)) {
+                    LATENCIES.computeIfAbsent(operation, key -> new Latencies()).record(latencyNanos);
+                }
+            } else if (failed.incrementAndGet() >= maxAttempts) {
+                log.warn("Can't execute {} in {} tries", operation, maxAttempts);
+                result.complete(empty());
+            } else {
+                cancelTimeout();
+                launch();
+            }
+        }
+
+        void cancelAll() {
+            cancelTimeout();
+            for (Attempt attempt = running.poll(); attempt != null; attempt = running.poll()) {
+                // The winner completes the result on its own thread, which must not be interrupted
+                attempt.future.cancel(attempt.thread != currentThread());
+            }
+        }
+
+        void cancelTimeout() {
+            final HashedWheelTimer.Timeout scheduled = timeout;
+            if (nonNull(scheduled)) {
+                scheduled.cancel();
+            }
+        }
+
+        final class Attempt implements Runnable {
+            final Proxy proxy;
+            final long startNanos = nanoTime();
+            volatile Future<?> future;
+            volatile Thread thread;
+
+            Attempt(Proxy proxy) {
+                this.proxy = proxy;
+            }
+
+            @Override
+            public void run() {
+                thread = currentThread();
+                complete(proxy, startNanos, call(proxy));
             }
         }
     }
 
-    private static <T> List<T> newArrayList() {
-        return new ArrayList<>();
+    /**
+     * Latencies of the last calls of an operation: the current histogram is recorded, the previous full one is read.
+     */
+    private static final class Latencies {
+        volatile LatencyHistogram current = new LatencyHistogram();
+        volatile LatencyHistogram previous;
+
+        void record(long nanos) {
+            final LatencyHistogram histogram = current;
+            histogram.record(nanos);
+            if (histogram.getTotalCount() >= LATENCY_WINDOW && current == histogram) {
+                previous = histogram;
+                current = new LatencyHistogram();
+            }
+        }
+
+        long getPercentileMs(double percentile, long defaultMs) {
+            final LatencyHistogram full = previous;
+            final LatencyHistogram histogram = nonNull(full) ? full : current;
+            if (histogram.getTotalCount() < HEDGE_MIN_CALLS) {
+                return defaultMs;
+            }
+            return Math.max(1, NANOSECONDS.toMillis(histogram.getValueAtPercentile(percentile)));
+        }
     }
 }
@@ -0,0 +1,161 @@
+package songbox.house.util;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+import static java.util.Objects.nonNull;
+import static java.util.function.UnaryOperator.identity;
+
+/**
+ * Runs one call per key at a time: callers of a key which is already in progress wait for its result instead of
+ * calling again. The key is forgotten as soon as the call completes, so the next caller calls again and nothing is
+ * kept between calls.
+ */
+public final class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, Flight<V>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Calls {@code call} on the calling thread, or waits for the same key called by another thread. An exception of
+     * the call is thrown to all waiting callers.
+     */
+    public V execute(K key, Supplier<V> call) {
+        return execute(key, call, identity());
+    }
+
+    /**
+     * Same as {@link #execute(Object, Supplier)}, but callers which wait for another thread get {@code copy} of the
+     * result, e.g. of a mutable array, while the calling thread gets the result itself.
+     */
+    public V execute(K key, Supplier<V> call, UnaryOperator<V> copy) {
+        while (true) {
+            final Flight<V> own = new Flight<>();
+            final Flight<V> running = inFlight.putIfAbsent(key, own);
+            if (nonNull(running)) {
+                if (!running.join()) {
+                    // Cancelled by its last waiter
+                    inFlight.remove(key, running);
+                    continue;
+                }
+                try {
+                    return copy.apply(running.result.join());
+                } catch (CompletionException e) {
+                    throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+                }
+            }
+
+            try {
+                final V result = call.get();
+                own.result.complete(result);
+                return result;
+            } catch (RuntimeException | Error e) {
+                own.result.completeExceptionally(e);
+                throw e;
+            } finally {
+                inFlight.remove(key, own);
+            }
+        }
+    }
+
+    /**
+     * Async version of {@link #execute(Object, Supplier)}: returns a future of the result of the call of the same key
+     * if there is one. Cancelling the returned future doesn't cancel the call for other callers, the call is
+     * cancelled when all of its callers cancelled their futures.
+     */
+    public CompletableFuture<V> executeAsync(K key, Supplier<CompletableFuture<V>> call) {
+        return executeAsync(key, call, identity());
+    }
+
+    /**
+     * Same as {@link #executeAsync(Object, Supplier)}, but callers which joined the call of another caller get
+     * {@code copy} of the result.
+     */
+    public CompletableFuture<V> executeAsync(K key, Supplier<CompletableFuture<V>> call, UnaryOperator<V> copy) {
+        while (true) {
+            final Flight<V> own = new Flight<>();
+            final Flight<V> running = inFlight.putIfAbsent(key, own);
+            if (nonNull(running)) {
+                if (running.join()) {
+                    return running.waiter(copy);
+                }
+                inFlight.remove(key, running);
+                continue;
+            }
+
+            own.result.whenComplete((result, error) -> inFlight.remove(key, own));
+            try {
+                final CompletableFuture<V> future = call.get();
+                own.call = future;
+                future.whenComplete((result, error) -> {
+                    if (nonNull(error)) {
+                        own.result.completeExceptionally(error);
+                    } else {
+                        own.result.complete(result);
+                    }
+                });
+                if (own.result.isCancelled()) {
+                    future.cancel(true);
+                }
+            } catch (RuntimeException e) {
+                own.result.completeExceptionally(e);
+            }
+            return own.waiter(identity());
+        }
+    }
+
+    /**
+     * @return number of calls in progress
+     */
+    public int size() {
+        return inFlight.size();
+    }
+
+    /**
+     * Call of a key and the number of its callers waiting for it.
+     */
+    private static final class Flight<V> {
+        final CompletableFuture<V> result = new CompletableFuture<>();
+        // The caller which started the call is the first one
+        final AtomicInteger waiters = new AtomicInteger(1);
+        volatile CompletableFuture<V> call;
+
+        /**
+         * @return false if the call is cancelled, as all its callers left
+         */
+        boolean join() {
+            int current;
+            do {
+                current = waiters.get();
+                if (current <= 0) {
+                    return false;
+                }
+            } while (!waiters.compareAndSet(current, current + 1));
+            return true;
+        }
+
+        CompletableFuture<V> waiter(UnaryOperator<V> copy) {
+            final CompletableFuture<V> waiter = result.thenApply(copy);
+            waiter.whenComplete((value, error) -> {
+                if (waiter.isCancelled()) {
+                    leave();
+                }
+            });
+            return waiter;
+        }
+
+        void leave() {
+            if (waiters.decrementAndGet() == 0) {
+                result.cancel(false);
+                final CompletableFuture<V> running = call;
+                if (nonNull(running)) {
+                    running.cancel(true);
+                }
+            }
+        }
+    }
+}
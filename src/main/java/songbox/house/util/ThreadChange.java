@@ -5,6 +5,7 @@ import org.springframework.util.concurrent.ListenableFuture;
 
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.function.Supplier;
 
 public class ThreadChange {
     static ThreadLocal<Boolean> alreadyApplied = new ThreadLocal<>();
@@ -58,7 +59,6 @@ public class ThreadChange {
         if (Objects.equals(alreadyApplied.get(), true)) {
             return task;
         }
-        alreadyApplied.set(true);
 
         changeTransaction.willChange();
         return () -> {
@@ -130,17 +130,34 @@ public class ThreadChange {
 
         @Override
         public Future<?> submit(Runnable task) {
-            return super.submit(applyContext(task));
+            final Runnable applied = applyContext(task);
+            return whileApplied(() -> super.submit(applied));
         }
 
         @Override
         public <T> Future<T> submit(Runnable task, T result) {
-            return super.submit(applyContext(task), result);
+            final Runnable applied = applyContext(task);
+            return whileApplied(() -> super.submit(applied, result));
         }
 
         @Override
         public <T> Future<T> submit(Callable<T> task) {
-            return super.submit(applyContext(task));
+            final Callable<T> applied = applyContext(task);
+            return whileApplied(() -> super.submit(applied));
+        }
+
+        /**
+         * super.submit() passes the task to {@link #execute(Runnable)} on the same thread, where it's already
+         * wrapped. The flag is restored after it, so the next task of the calling thread is wrapped again.
+         */
+        private static <F> F whileApplied(Supplier<F> submit) {
+            final Boolean previous = alreadyApplied.get();
+            alreadyApplied.set(true);
+            try {
+                return submit.get();
+            } finally {
+                alreadyApplied.set(previous);
+            }
         }
     }
 }
@@ -0,0 +1,58 @@
+package songbox.house.util;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Interner which doesn't keep values alive: a canonical instance is dropped once nobody else references it.
+ * Lock striping keeps contention low for pools of {@link ExecutorUtil}.
+ */
+public final class WeakInterner<T> {
+
+    private static final int STRIPES = 16;
+
+    private final List<Map<T, WeakReference<T>>> stripes = new ArrayList<>(STRIPES);
+
+    public WeakInterner() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes.add(new WeakHashMap<>());
+        }
+    }
+
+    /**
+     * @return canonical instance equal to the value, the value itself if there is no such instance yet
+     */
+    public T intern(T value) {
+        if (value == null) {
+            return null;
+        }
+        final Map<T, WeakReference<T>> stripe = stripe(value);
+        synchronized (stripe) {
+            final WeakReference<T> reference = stripe.get(value);
+            final T canonical = reference == null ? null : reference.get();
+            if (canonical != null) {
+                return canonical;
+            }
+            stripe.put(value, new WeakReference<>(value));
+            return value;
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Map<T, WeakReference<T>> stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    private Map<T, WeakReference<T>> stripe(T value) {
+        final int hash = value.hashCode();
+        return stripes.get((hash ^ (hash >>> 16)) & (STRIPES - 1));
+    }
+}
@@ -0,0 +1,164 @@
+package songbox.house.util.compare;
+
+import songbox.house.util.ArtistsTitle;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Scores many candidates against one query with {@link CompiledArtistsTitleQuery}, in parallel for big batches.
+ * Batches smaller than {@link #PARALLEL_THRESHOLD} are scored on the calling thread, so small requests don't pay
+ * for forking. Results are the same as {@link ArtistTitleComparator#compare(ArtistsTitle, ArtistsTitle)} of each
+ * candidate with the query.
+ */
+public final class ArtistTitleBatchScorer {
+
+    public static final int PARALLEL_THRESHOLD = 2048;
+
+    private static final int MIN_CHUNK_SIZE = 512;
+
+    private ArtistTitleBatchScorer() {
+    }
+
+    public static int[] scoreAll(ArtistsTitle query, ArtistsTitle[] candidates) {
+        return scoreAll(query, candidates, ForkJoinPool.commonPool());
+    }
+
+    public static int[] scoreAll(ArtistsTitle query, ArtistsTitle[] candidates, ForkJoinPool pool) {
+        final CompiledArtistsTitleQuery compiledQuery = ArtistTitleComparator.compile(query);
+        final int[] scores = new int[candidates.length];
+        if (candidates.length < PARALLEL_THRESHOLD || pool.getParallelism() < 2) {
+            score(compiledQuery, candidates, scores, 0, candidates.length);
+        } else {
+            final int chunkSize = Math.max(MIN_CHUNK_SIZE, candidates.length / (pool.getParallelism() * 4));
+            pool.invoke(new ScoreAction(compiledQuery, candidates, scores, 0, candidates.length, chunkSize));
+        }
+        return scores;
+    }
+
+    /**
+     * Same as {@link #scoreAll(ArtistsTitle, ArtistsTitle[])} on the executor, e.g. a pool of {@code ExecutorUtil}:
+     * the batch is split into chunks which are taken one by one by up to {@code parallelism - 1} tasks of the executor
+     * and by the calling thread. The calling thread waits only for chunks taken by tasks which are already running,
+     * so it may be called from a task of the same executor: when the pool is saturated, all chunks are scored on the
+     * calling thread instead of waiting for queued tasks forever.
+     * <p>
+     * Submitting to a {@code ThreadChange} pool keeps the context of the calling thread for its next tasks.
+     */
+    public static int[] scoreAll(ArtistsTitle query, ArtistsTitle[] candidates, ExecutorService executor,
+            int parallelism) {
+        final CompiledArtistsTitleQuery compiledQuery = ArtistTitleComparator.compile(query);
+        final int[] scores = new int[candidates.length];
+        final int chunks = Math.min(parallelism * 4, candidates.length / MIN_CHUNK_SIZE);
+        if (candidates.length < PARALLEL_THRESHOLD || parallelism < 2 || chunks < 2) {
+            score(compiledQuery, candidates, scores, 0, candidates.length);
+            return scores;
+        }
+
+        final Chunks batch = new Chunks(compiledQuery, candidates, scores, chunks);
+        final List<Future<?>> futures = new ArrayList<>(parallelism - 1);
+        try {
+            for (int i = 1; i < parallelism; i++) {
+                futures.add(executor.submit(batch::scoreChunks));
+            }
+        } catch (RejectedExecutionException e) {
+            // Scored by the calling thread
+        }
+        batch.scoreChunks();
+        try {
+            batch.scored.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while scoring candidates", e);
+        } finally {
+            // Tasks which haven't started yet have nothing left to score
+            futures.forEach(future -> future.cancel(false));
+        }
+        if (batch.failure != null) {
+            throw new IllegalStateException("Can't score candidates", batch.failure);
+        }
+        return scores;
+    }
+
+    private static void score(CompiledArtistsTitleQuery query, ArtistsTitle[] candidates, int[] scores, int from,
+            int to) {
+        for (int i = from; i < to; i++) {
+            scores[i] = query.score(candidates[i]);
+        }
+    }
+
+    /**
+     * Chunks of a batch taken by the calling thread and the tasks of the executor.
+     */
+    private static final class Chunks {
+        final CompiledArtistsTitleQuery query;
+        final ArtistsTitle[] candidates;
+        final int[] scores;
+        final int chunks;
+        final int chunkSize;
+        final AtomicInteger next = new AtomicInteger();
+        final CountDownLatch scored;
+        volatile Throwable failure;
+
+        Chunks(CompiledArtistsTitleQuery query, ArtistsTitle[] candidates, int[] scores, int chunks) {
+            this.query = query;
+            this.candidates = candidates;
+            this.scores = scores;
+            this.chunks = chunks;
+            this.chunkSize = (candidates.length + chunks - 1) / chunks;
+            this.scored = new CountDownLatch(chunks);
+        }
+
+        void scoreChunks() {
+            for (int chunk = next.getAndIncrement(); chunk < chunks; chunk = next.getAndIncrement()) {
+                try {
+                    final int from = chunk * chunkSize;
+                    score(query, candidates, scores, from, Math.min(candidates.length, from + chunkSize));
+                } catch (RuntimeException | Error e) {
+                    failure = e;
+                } finally {
+                    scored.countDown();
+                }
+            }
+        }
+    }
+
+    private static final class ScoreAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final CompiledArtistsTitleQuery query;
+        private final ArtistsTitle[] candidates;
+        private final int[] scores;
+        private final int from;
+        private final int to;
+        private final int chunkSize;
+
+        private ScoreAction(CompiledArtistsTitleQuery query, ArtistsTitle[] candidates, int[] scores, int from,
+                int to, int chunkSize) {
+            this.query = query;
+            this.candidates = candidates;
+            this.scores = scores;
+            this.from = from;
+            this.to = to;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= chunkSize) {
+                score(query, candidates, scores, from, to);
+            } else {
+                final int middle = (from + to) >>> 1;
+                invokeAll(new ScoreAction(query, candidates, scores, from, middle, chunkSize),
+                        new ScoreAction(query, candidates, scores, middle, to, chunkSize));
+            }
+        }
+    }
+}
@@ -5,19 +5,77 @@ import songbox.house.util.ArtistsTitle;
 import java.util.Comparator;
 
 import static org.apache.commons.lang3.ObjectUtils.allNotNull;
+import static songbox.house.util.compare.LevenshteinDistanceComparator.BELOW_THRESHOLD;
+import static songbox.house.util.compare.LevenshteinDistanceComparator.MAX_COMPARE_RESULT;
 
 public class ArtistTitleComparator implements Comparator<ArtistsTitle> {
 
     private static final LevenshteinDistanceComparator COMPARATOR = new LevenshteinDistanceComparator();
 
+    /**
+     * Prepares expected value once for scoring many candidates against it, see {@link CompiledArtistsTitleQuery}
+     */
+    public static CompiledArtistsTitleQuery compile(ArtistsTitle expected) {
+        return new CompiledArtistsTitleQuery(expected);
+    }
+
     @Override
     public int compare(ArtistsTitle artistsTitle1, ArtistsTitle artistsTitle2) {
         int artists = allNotNull(artistsTitle1.getArtists(), artistsTitle2.getArtists())
-                ? COMPARATOR.compare(artistsTitle1.getArtists(), artistsTitle2.getArtists())
+                ? COMPARATOR.compare(artistsTitle1.normalizedArtists(), artistsTitle2.normalizedArtists())
                 : 0;
         int title = allNotNull(artistsTitle1.getTitle(), artistsTitle2.getTitle())
-                ? COMPARATOR.compare(artistsTitle1.getTitle(), artistsTitle2.getTitle()) :
+                ? COMPARATOR.compare(artistsTitle1.normalizedTitle(), artistsTitle2.normalizedTitle()) :
                 0;
         return (artists + title) / 2;
     }
+
+    /**
+     * Same as {@link #compare(ArtistsTitle, ArtistsTitle)}, but gives up as soon as it's clear that result is lower
+     * than {@code threshold}. Title is not compared at all if artists score rules the threshold out.
+     *
+     * @return exact compare result if it isn't lower than {@code threshold},
+     * {@link LevenshteinDistanceComparator#BELOW_THRESHOLD} otherwise
+     */
+    public int scoreAtLeast(ArtistsTitle artistsTitle1, ArtistsTitle artistsTitle2, int threshold) {
+        final boolean compareArtists = allNotNull(artistsTitle1.getArtists(), artistsTitle2.getArtists());
+        final boolean compareTitle = allNotNull(artistsTitle1.getTitle(), artistsTitle2.getTitle());
+        if (compareArtists && artistsTitle1.normalizedArtists().originalLength() == 0
+                || compareTitle && artistsTitle1.normalizedTitle().originalLength() == 0) {
+            // Score of an empty part isn't bounded, so it can't rule the other part out
+            return LevenshteinDistanceComparator.atLeast(compare(artistsTitle1, artistsTitle2), threshold);
+        }
+
+        int artists = 0;
+        if (compareArtists) {
+            final int minArtists = minScore(threshold, compareTitle ? MAX_COMPARE_RESULT : 0);
+            artists = COMPARATOR.compareAtLeast(artistsTitle1.normalizedArtists(), artistsTitle2.normalizedArtists(),
+                    minArtists);
+            if (artists == BELOW_THRESHOLD) {
+                return BELOW_THRESHOLD;
+            }
+        }
+        int title = 0;
+        if (compareTitle) {
+            title = COMPARATOR.compareAtLeast(artistsTitle1.normalizedTitle(), artistsTitle2.normalizedTitle(),
+                    minScore(threshold, artists));
+            if (title == BELOW_THRESHOLD) {
+                return BELOW_THRESHOLD;
+            }
+        }
+        return LevenshteinDistanceComparator.atLeast((artists + title) / 2, threshold);
+    }
+
+    public boolean isAtLeast(ArtistsTitle artistsTitle1, ArtistsTitle artistsTitle2, int threshold) {
+        return scoreAtLeast(artistsTitle1, artistsTitle2, threshold) != BELOW_THRESHOLD;
+    }
+
+    /**
+     * @return min score of one part which gives {@code (score + otherScore) / 2 >= threshold}
+     */
+    private static int minScore(int threshold, int otherScore) {
+        // Integer division rounds towards zero, so for non-positive sums one more point is allowed
+        final long score = 2L * threshold - otherScore - (threshold <= 0 ? 1 : 0);
+        return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, score));
+    }
 }
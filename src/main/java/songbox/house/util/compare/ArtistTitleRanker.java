@@ -0,0 +1,109 @@
+package songbox.house.util.compare;
+
+import songbox.house.util.ArtistsTitle;
+import songbox.house.util.BitRateDuration;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import static java.util.Collections.emptyList;
+
+/**
+ * Selects top K candidates for a query: the most similar by {@link ArtistTitleComparator} first, then the best by
+ * {@link BitRateDurationComparator}. Similarity of each candidate is computed once with
+ * {@link CompiledArtistsTitleQuery} and kept next to it, a bounded heap keeps only K best candidates, so it's
+ * O(N log K) cheap comparisons instead of sorting all candidates with full Levenshtein on every comparison.
+ */
+public final class ArtistTitleRanker {
+
+    private static final BitRateDurationComparator BIT_RATE_DURATION_COMPARATOR = new BitRateDurationComparator();
+
+    private ArtistTitleRanker() {
+    }
+
+    public static <T extends ArtistsTitle & BitRateDuration> List<T> top(ArtistsTitle query, Iterable<T> candidates,
+            int k) {
+        return top(query, candidates.iterator(), Function.identity(), k);
+    }
+
+    public static <T extends ArtistsTitle & BitRateDuration> List<T> top(ArtistsTitle query, Stream<T> candidates,
+            int k) {
+        return top(query, candidates.iterator(), Function.identity(), k);
+    }
+
+    public static <T extends BitRateDuration> List<T> top(ArtistsTitle query, Iterable<T> candidates,
+            Function<? super T, ArtistsTitle> artistsTitle, int k) {
+        return top(query, candidates.iterator(), artistsTitle, k);
+    }
+
+    public static <T extends BitRateDuration> List<T> top(ArtistsTitle query, Stream<T> candidates,
+            Function<? super T, ArtistsTitle> artistsTitle, int k) {
+        return top(query, candidates.iterator(), artistsTitle, k);
+    }
+
+    private static <T extends BitRateDuration> List<T> top(ArtistsTitle query, Iterator<T> candidates,
+            Function<? super T, ArtistsTitle> artistsTitle, int k) {
+        if (k <= 0) {
+            return emptyList();
+        }
+
+        final CompiledArtistsTitleQuery compiledQuery = ArtistTitleComparator.compile(query);
+        // Head of the heap is the worst of kept candidates
+        final PriorityQueue<Scored<T>> heap = new PriorityQueue<>(k, ArtistTitleRanker::compareWorstFirst);
+        int index = 0;
+        while (candidates.hasNext()) {
+            final T candidate = candidates.next();
+            final int score = compiledQuery.score(artistsTitle.apply(candidate));
+            if (heap.size() < k) {
+                heap.add(new Scored<>(candidate, score, index));
+            } else if (isBetter(score, candidate, heap.peek())) {
+                heap.poll();
+                heap.add(new Scored<>(candidate, score, index));
+            }
+            index++;
+        }
+
+        final List<Scored<T>> best = new ArrayList<>(heap);
+        best.sort((scored1, scored2) -> compareWorstFirst(scored2, scored1));
+        final List<T> result = new ArrayList<>(best.size());
+        for (Scored<T> scored : best) {
+            result.add(scored.candidate);
+        }
+        return result;
+    }
+
+    private static boolean isBetter(int score, BitRateDuration candidate, Scored<?> kept) {
+        if (score != kept.score) {
+            return score > kept.score;
+        }
+        // Equal candidates are kept in encounter order, so the later one isn't better
+        return BIT_RATE_DURATION_COMPARATOR.compare(candidate, kept.candidate) > 0;
+    }
+
+    private static int compareWorstFirst(Scored<?> scored1, Scored<?> scored2) {
+        if (scored1.score != scored2.score) {
+            return Integer.compare(scored1.score, scored2.score);
+        }
+        final int bitRateDuration = BIT_RATE_DURATION_COMPARATOR.compare(scored1.candidate, scored2.candidate);
+        if (bitRateDuration != 0) {
+            return bitRateDuration;
+        }
+        return Integer.compare(scored2.index, scored1.index);
+    }
+
+    private static final class Scored<T extends BitRateDuration> {
+        final T candidate;
+        final int score;
+        final int index;
+
+        private Scored(T candidate, int score, int index) {
+            this.candidate = candidate;
+            this.score = score;
+            this.index = index;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package songbox.house.util.compare;
+
+import songbox.house.util.ArtistsTitle;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static java.util.Objects.nonNull;
+
+/**
+ * BK-tree over catalog words: answers "all words within edit distance k of this word" visiting only subtrees
+ * which edge distance is in {@code [d - k, d + k]}. Words are split and lowercased by {@link NormalizedWords},
+ * like {@link LevenshteinDistanceComparator#compare(String, String)} does, so found distances are the same which
+ * the comparator sums up.
+ * <p>
+ * Nodes are kept in parallel arrays (first child, next sibling, edge distance). Thread-safe, lookups don't block
+ * each other.
+ */
+public final class BkTreeWordIndex {
+
+    private static final int NO_NODE = -1;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private String[] words = new String[1024];
+    private int[] firstChild = new int[1024];
+    private int[] nextSibling = new int[1024];
+    private int[] edgeDistance = new int[1024];
+    private int size;
+
+    public void add(ArtistsTitle artistsTitle) {
+        if (nonNull(artistsTitle.getArtists())) {
+            addWords(artistsTitle.getArtists());
+        }
+        if (nonNull(artistsTitle.getTitle())) {
+            addWords(artistsTitle.getTitle());
+        }
+    }
+
+    public void addWords(String str) {
+        final NormalizedWords normalizedWords = NormalizedWords.of(str);
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < normalizedWords.size(); i++) {
+                if (normalizedWords.wordLength(i) > 0) {
+                    insert(normalizedWords.word(i));
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param str         word to look for, normalized like by the comparator; if it has several words, all of them
+     *                    are looked for
+     * @param maxDistance max edit distance
+     * @return distinct catalog words within {@code maxDistance} of any word of {@code str}
+     */
+    public List<String> find(String str, int maxDistance) {
+        final NormalizedWords normalizedWords = NormalizedWords.of(str);
+        final List<String> found = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            if (size == 0) {
+                return found;
+            }
+            final int[] stack = new int[size];
+            for (int i = 0; i < normalizedWords.size(); i++) {
+                find(new WordPattern(normalizedWords.word(i)), maxDistance, stack, found);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return normalizedWords.size() > 1 ? distinct(found) : found;
+    }
+
+    private void find(WordPattern pattern, int maxDistance, int[] stack, List<String> found) {
+        int top = 0;
+        stack[top++] = 0;
+        while (top > 0) {
+            final int node = stack[--top];
+            final int distance = pattern.distance(words[node]);
+            if (distance <= maxDistance) {
+                found.add(words[node]);
+            }
+            // Triangle inequality: words of other subtrees are farther than maxDistance
+            for (int child = firstChild[node]; child != NO_NODE; child = nextSibling[child]) {
+                if (Math.abs(edgeDistance[child] - distance) <= maxDistance) {
+                    stack[top++] = child;
+                }
+            }
+        }
+    }
+
+    private void insert(String word) {
+        if (size == 0) {
+            addNode(word, 0);
+            return;
+        }
+        int node = 0;
+        while (true) {
+            final int distance = EditDistance.distance(word, words[node]);
+            if (distance == 0) {
+                return;
+            }
+            int child = firstChild[node];
+            while (child != NO_NODE && edgeDistance[child] != distance) {
+                child = nextSibling[child];
+            }
+            if (child == NO_NODE) {
+                final int added = addNode(word, distance);
+                nextSibling[added] = firstChild[node];
+                firstChild[node] = added;
+                return;
+            }
+            node = child;
+        }
+    }
+
+    private int addNode(String word, int distance) {
+        if (size == words.length) {
+            final int capacity = size * 2;
+            words = Arrays.copyOf(words, capacity);
+            firstChild = Arrays.copyOf(firstChild, capacity);
+            nextSibling = Arrays.copyOf(nextSibling, capacity);
+            edgeDistance = Arrays.copyOf(edgeDistance, capacity);
+        }
+        words[size] = word;
+        firstChild[size] = NO_NODE;
+        nextSibling[size] = NO_NODE;
+        edgeDistance[size] = distance;
+        return size++;
+    }
+
+    private static List<String> distinct(List<String> words) {
+        return new ArrayList<>(new LinkedHashSet<>(words));
+    }
+}
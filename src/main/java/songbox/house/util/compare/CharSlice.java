@@ -0,0 +1,40 @@
+package songbox.house.util.compare;
+
+/**
+ * Reusable view over a part of char array, lets words of packed buffers be compared without substrings.
+ */
+final class CharSlice implements CharSequence {
+
+    private static final char[] EMPTY = new char[0];
+
+    private char[] chars = EMPTY;
+    private int offset;
+    private int length;
+
+    CharSlice set(char[] chars, int offset, int length) {
+        this.chars = chars;
+        this.offset = offset;
+        this.length = length;
+        return this;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return chars[offset + index];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return new String(chars, offset + start, end - start);
+    }
+
+    @Override
+    public String toString() {
+        return new String(chars, offset, length);
+    }
+}
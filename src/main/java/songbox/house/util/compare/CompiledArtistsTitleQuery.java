@@ -0,0 +1,44 @@
+package songbox.house.util.compare;
+
+import songbox.house.util.ArtistsTitle;
+
+import java.util.List;
+
+import static java.util.Objects.nonNull;
+
+/**
+ * Expected {@link ArtistsTitle} of {@link ArtistTitleComparator} prepared once to be scored against many
+ * candidates. {@code compile(expected).score(candidate)} returns the same value as
+ * {@code compare(candidate, expected)}.
+ * <p>
+ * Immutable and thread-safe.
+ */
+public final class CompiledArtistsTitleQuery {
+
+    private final CompiledQuery artists;
+    private final CompiledQuery title;
+
+    CompiledArtistsTitleQuery(ArtistsTitle expected) {
+        this.artists = LevenshteinDistanceComparator.compile(expected.getArtists());
+        this.title = LevenshteinDistanceComparator.compile(expected.getTitle());
+    }
+
+    public int score(ArtistsTitle candidate) {
+        final int artistsScore = nonNull(artists.getExpected()) && nonNull(candidate.getArtists())
+                ? artists.score(candidate.normalizedArtists())
+                : 0;
+        final int titleScore = nonNull(title.getExpected()) && nonNull(candidate.getTitle())
+                ? title.score(candidate.normalizedTitle())
+                : 0;
+        return (artistsScore + titleScore) / 2;
+    }
+
+    public int[] scoreAll(List<? extends ArtistsTitle> candidates) {
+        final int[] scores = new int[candidates.size()];
+        int i = 0;
+        for (ArtistsTitle candidate : candidates) {
+            scores[i++] = score(candidate);
+        }
+        return scores;
+    }
+}
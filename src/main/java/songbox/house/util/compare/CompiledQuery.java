@@ -0,0 +1,76 @@
+package songbox.house.util.compare;
+
+import java.util.List;
+
+import static java.util.Objects.isNull;
+import static songbox.house.util.compare.LevenshteinDistanceComparator.MAX_COMPARE_RESULT;
+import static songbox.house.util.compare.LevenshteinDistanceComparator.normalize;
+
+/**
+ * Expected string of {@link LevenshteinDistanceComparator} prepared once to be scored against many strings:
+ * words are split, lowercased and encoded into {@link WordPattern} bitmasks on creation.
+ * {@code compile(expected).score(str)} returns the same value as {@code compare(str, expected)}.
+ * <p>
+ * Immutable and thread-safe.
+ */
+public final class CompiledQuery {
+
+    private static final ThreadLocal<NormalizedWords> WORDS = ThreadLocal.withInitial(NormalizedWords::new);
+    private static final ThreadLocal<CharSlice> SLICE = ThreadLocal.withInitial(CharSlice::new);
+
+    private final String expected;
+    private final WordPattern[] patterns;
+
+    CompiledQuery(String expected) {
+        this.expected = expected;
+        if (isNull(expected)) {
+            this.patterns = new WordPattern[0];
+        } else {
+            final NormalizedWords words = NormalizedWords.of(expected);
+            this.patterns = new WordPattern[words.size()];
+            for (int i = 0; i < patterns.length; i++) {
+                patterns[i] = new WordPattern(words.word(i));
+            }
+        }
+    }
+
+    public String getExpected() {
+        return expected;
+    }
+
+    public int score(String str) {
+        if (isNull(str)) {
+            return isNull(expected) ? MAX_COMPARE_RESULT : 0;
+        }
+        if (isNull(expected)) {
+            return 0;
+        }
+        return score(WORDS.get().reset(str));
+    }
+
+    public int score(NormalizedWords words) {
+        final CharSlice slice = SLICE.get();
+        int dist = 0;
+        for (int i = 0; i < words.size(); i++) {
+            final CharSlice word = words.word(i, slice);
+            int minDistance = patterns.length == 0 ? 0 : Integer.MAX_VALUE;
+            for (WordPattern pattern : patterns) {
+                final int distance = pattern.distance(word);
+                if (distance < minDistance) {
+                    minDistance = distance;
+                }
+            }
+            dist += minDistance;
+        }
+        return normalize(dist, words.originalLength());
+    }
+
+    public int[] scoreAll(List<String> strings) {
+        final int[] scores = new int[strings.size()];
+        int i = 0;
+        for (String str : strings) {
+            scores[i++] = score(str);
+        }
+        return scores;
+    }
+}
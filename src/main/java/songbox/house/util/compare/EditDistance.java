@@ -0,0 +1,128 @@
+package songbox.house.util.compare;
+
+import static songbox.house.util.compare.WordPattern.MAX_BIT_PARALLEL_LENGTH;
+
+/**
+ * Edit aka Levenshtein distance between already normalized words. Uses {@link WordPattern} (Myers' bit-vector
+ * algorithm) when one of the words fits into 64 bits and rolling single-row DP otherwise. Scratch buffers are
+ * thread-local, so no allocations are made per pair.
+ */
+public final class EditDistance {
+
+    private static final ThreadLocal<WordPattern> PATTERN = ThreadLocal.withInitial(WordPattern::new);
+    private static final ThreadLocal<int[]> ROW = ThreadLocal.withInitial(() -> new int[MAX_BIT_PARALLEL_LENGTH + 1]);
+
+    private EditDistance() {
+    }
+
+    /**
+     * @param wordA first word
+     * @param wordB second word
+     * @return minimum number of insertions, deletions or substitutions to change one word into another
+     */
+    public static int distance(String wordA, String wordB) {
+        final String pattern = wordA.length() <= wordB.length() ? wordA : wordB;
+        final String text = pattern == wordA ? wordB : wordA;
+        if (pattern.length() > MAX_BIT_PARALLEL_LENGTH) {
+            return rolling(pattern, text);
+        }
+        return pattern(pattern).distance(text);
+    }
+
+    /**
+     * Thread-local pattern reused by the calling thread. Valid until the next call on the same thread.
+     */
+    static WordPattern pattern(CharSequence word) {
+        return PATTERN.get().set(word);
+    }
+
+    /**
+     * Classic DP keeping only one row of the matrix, for words longer than 64 chars.
+     */
+    static int rolling(CharSequence wordA, CharSequence wordB) {
+        final int n = wordB.length();
+        final int[] row = row(n);
+        for (int j = 0; j <= n; j++) {
+            row[j] = j;
+        }
+
+        for (int i = 0; i < wordA.length(); i++) {
+            final char charWordA = wordA.charAt(i);
+            int diagonal = row[0];
+            row[0] = i + 1;
+            for (int j = 0; j < n; j++) {
+                final int above = row[j + 1];
+                if (charWordA == wordB.charAt(j)) {
+                    row[j + 1] = diagonal;
+                } else {
+                    int minCost = diagonal < above ? diagonal : above;
+                    minCost = row[j] < minCost ? row[j] : minCost;
+                    row[j + 1] = minCost + 1;
+                }
+                diagonal = above;
+            }
+        }
+
+        return row[n];
+    }
+
+    /**
+     * Ukkonen's banded DP: only cells with {@code |i - j| <= maxDistance} are computed and it stops as soon as
+     * the whole band of a row is greater than {@code maxDistance}.
+     *
+     * @return exact distance if it isn't greater than {@code maxDistance}, {@code maxDistance + 1} otherwise
+     */
+    static int banded(CharSequence wordA, CharSequence wordB, int maxDistance) {
+        final int m = wordA.length();
+        final int n = wordB.length();
+        if (Math.abs(m - n) > maxDistance) {
+            return maxDistance + 1;
+        }
+        if (maxDistance >= Math.max(m, n)) {
+            return rolling(wordA, wordB);
+        }
+
+        final int outside = maxDistance + 1;
+        final int[] row = row(n);
+        for (int j = 0; j <= n; j++) {
+            row[j] = j <= maxDistance ? j : outside;
+        }
+
+        for (int i = 1; i <= m; i++) {
+            final char charWordA = wordA.charAt(i - 1);
+            final int from = Math.max(1, i - maxDistance);
+            final int to = Math.min(n, i + maxDistance);
+            int diagonal = row[from - 1];
+            row[from - 1] = from == 1 ? Math.min(i, outside) : outside;
+            int rowMin = row[from - 1];
+            for (int j = from; j <= to; j++) {
+                final int above = row[j];
+                int cost;
+                if (charWordA == wordB.charAt(j - 1)) {
+                    cost = diagonal;
+                } else {
+                    cost = diagonal < above ? diagonal : above;
+                    cost = row[j - 1] < cost ? row[j - 1] : cost;
+                    cost = Math.min(cost + 1, outside);
+                }
+                row[j] = cost;
+                rowMin = cost < rowMin ? cost : rowMin;
+                diagonal = above;
+            }
+            if (rowMin > maxDistance) {
+                return outside;
+            }
+        }
+
+        return row[n];
+    }
+
+    private static int[] row(int n) {
+        int[] row = ROW.get();
+        if (row.length < n + 1) {
+            row = new int[n + 1];
+            ROW.set(row);
+        }
+        return row;
+    }
+}
@@ -1,87 +1,137 @@
 package songbox.house.util.compare;
 
-import java.util.Arrays;
 import java.util.Comparator;
-import java.util.List;
-import java.util.stream.Collectors;
 
 import static java.util.Objects.isNull;
 
 public class LevenshteinDistanceComparator implements Comparator<String> {
 
-    private static final String SPLIT_PATTERN = "[\\p{Punct}\\s]+";
     public static final int MAX_COMPARE_RESULT = 100;
-
     /**
-     * Edit aka Levenshtein distance
-     *
-     * @param wordA first word
-     * @param wordB second word
-     * @return minimum number of insertions, deletions or substitutions to change one word into another
+     * Result of the thresholded methods when the score is lower than the threshold. Scores go down to
+     * {@link Integer#MIN_VALUE} for empty strings, but never above {@link #MAX_COMPARE_RESULT}, so it can't be mistaken
+     * for a score. Check it with {@code ==} before comparing the result as a score.
      */
-    private static int distance(String wordA, String wordB) {
-        wordA = wordA.toLowerCase();
-        wordB = wordB.toLowerCase();
+    public static final int BELOW_THRESHOLD = Integer.MAX_VALUE;
 
-        int[][] costs = new int[wordA.length() + 1][wordB.length() + 1];
+    private static final ThreadLocal<NormalizedWords> WORDS = ThreadLocal.withInitial(NormalizedWords::new);
+    private static final ThreadLocal<NormalizedWords> EXPECTED_WORDS = ThreadLocal.withInitial(NormalizedWords::new);
+    private static final ThreadLocal<CharSlice> SLICE = ThreadLocal.withInitial(CharSlice::new);
 
-        // Init
-        for (int i = 0; i <= wordA.length(); i++) {
-            costs[i][0] = i;
-        }
+    /**
+     * Prepares expected string once for scoring many strings against it, see {@link CompiledQuery}
+     */
+    public static CompiledQuery compile(String expected) {
+        return new CompiledQuery(expected);
+    }
 
-        for (int j = 0; j <= wordB.length(); j++) {
-            costs[0][j] = j;
+    @Override
+    public int compare(String str1, String expected) {
+        if (isNull(str1) && isNull(expected)) {
+            return 100;
+        }
+        if (isNull(str1) || isNull(expected)) {
+            return 0;
         }
+        return compare(WORDS.get().reset(str1), EXPECTED_WORDS.get().reset(expected));
+    }
+
+    /**
+     * Same as {@link #compare(String, String)} for already split and lowercased strings
+     */
+    public int compare(NormalizedWords words1, NormalizedWords expectedWords) {
+        final CharSlice slice = SLICE.get();
 
-        for (int i = 0; i < wordA.length(); i++) {
-            char charWordA = wordA.charAt(i);
-            for (int j = 0; j < wordB.length(); j++) {
-                char charWordB = wordB.charAt(j);
-
-                if (charWordA == charWordB) {
-                    costs[i + 1][j + 1] = costs[i][j];
-                } else {
-                    int replaceCost = costs[i][j] + 1;
-                    int insertCost = costs[i][j + 1] + 1;
-                    int deleteCost = costs[i + 1][j] + 1;
-
-                    int minCost = replaceCost > insertCost ? insertCost : replaceCost;
-                    minCost = deleteCost > minCost ? minCost : deleteCost;
-                    costs[i + 1][j + 1] = minCost;
+        int dist = 0;
+        for (int i = 0; i < words1.size(); i++) {
+            // Build the bitmasks once per word, then reuse them for every expected word
+            final WordPattern pattern = EditDistance.pattern(words1.word(i, slice));
+            int minDistance = expectedWords.size() == 0 ? 0 : Integer.MAX_VALUE;
+            for (int j = 0; j < expectedWords.size(); j++) {
+                final int distance = pattern.distance(expectedWords.word(j, slice));
+                if (distance < minDistance) {
+                    minDistance = distance;
                 }
             }
+            dist += minDistance;
         }
 
-        return costs[wordA.length()][wordB.length()];
+        return normalize(dist, words1.originalLength());
     }
 
-    @Override
-    public int compare(String str1, String expected) {
-        if (isNull(str1) && isNull(expected)) {
-            return 100;
-        }
+    /**
+     * Same as {@link #compare(String, String)}, but stops as soon as it's clear that result is lower than
+     * {@code threshold}: distance budget is derived from the threshold, expected words which length differs too much
+     * are skipped and distances are computed with cutoff.
+     *
+     * @return exact compare result if it isn't lower than {@code threshold}, {@link #BELOW_THRESHOLD} otherwise
+     */
+    public int compareAtLeast(String str1, String expected, int threshold) {
         if (isNull(str1) || isNull(expected)) {
-            return 0;
+            return atLeast(compare(str1, expected), threshold);
+        }
+        return compareAtLeast(WORDS.get().reset(str1), EXPECTED_WORDS.get().reset(expected), threshold);
+    }
+
+    /**
+     * Same as {@link #compareAtLeast(String, String, int)} for already split and lowercased strings
+     */
+    public int compareAtLeast(NormalizedWords words1, NormalizedWords expectedWords, int threshold) {
+        final int maxDistance = words1.originalLength();
+        if (maxDistance == 0) {
+            return atLeast(compare(words1, expectedWords), threshold);
+        }
+        final int budget = maxAllowedDistance(maxDistance, threshold);
+        if (budget < 0) {
+            return BELOW_THRESHOLD;
         }
-        final String[] words1 = str1.split(SPLIT_PATTERN);
-        final List<String> expectedWords = Arrays.stream(expected.split(SPLIT_PATTERN))
-                .map(String::toLowerCase)
-                .collect(Collectors.toList());
 
-        int maxDistance = 0;
+        final CharSlice slice = SLICE.get();
         int dist = 0;
-        for (String word : words1) {
-            dist += expectedWords
-                    .stream()
-                    .map(e -> distance(word, e))
-                    .mapToInt(e -> e)
-                    .min()
-                    .orElse(0);
-            maxDistance += word.length();
+        for (int i = 0; i < words1.size(); i++) {
+            final WordPattern pattern = EditDistance.pattern(words1.word(i, slice));
+            final int remaining = budget - dist;
+            // Only distances lower than the best found so far are interesting
+            int minDistance = expectedWords.size() == 0 ? 0 : remaining + 1;
+            for (int j = 0; j < expectedWords.size() && minDistance > 0; j++) {
+                final int distance = pattern.distance(expectedWords.word(j, slice), minDistance - 1);
+                if (distance < minDistance) {
+                    minDistance = distance;
+                }
+            }
+            if (minDistance > remaining) {
+                return BELOW_THRESHOLD;
+            }
+            dist += minDistance;
         }
 
-        // And normalize it. It will be 100 if str1 == expected, or 0 if str1 not matching expected at all
+        return atLeast(normalize(dist, maxDistance), threshold);
+    }
+
+    /**
+     * @return max summary distance which is normalized to a value not lower than {@code threshold}, or -1
+     */
+    static int maxAllowedDistance(int maxDistance, int threshold) {
+        final int limit = Integer.MAX_VALUE / 2;
+        int distance = (int) Math.min(limit,
+                Math.max(-1., (1. - (double) threshold / MAX_COMPARE_RESULT) * maxDistance));
+        while (distance >= 0 && normalize(distance, maxDistance) < threshold) {
+            distance--;
+        }
+        while (distance < limit && normalize(distance + 1, maxDistance) >= threshold) {
+            distance++;
+        }
+        return distance;
+    }
+
+    static int atLeast(int score, int threshold) {
+        return score >= threshold ? score : BELOW_THRESHOLD;
+    }
+
+    /**
+     * Normalizes summary distance. It will be 100 if str1 == expected, or 0 if str1 not matching expected at all
+     */
+    static int normalize(int dist, int maxDistance) {
         return (int) ((1. - (float) dist / maxDistance) * MAX_COMPARE_RESULT);
     }
-}
\ No newline at end of file
+}
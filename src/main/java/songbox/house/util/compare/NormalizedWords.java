@@ -0,0 +1,149 @@
+package songbox.house.util.compare;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Words of a string as {@link LevenshteinDistanceComparator} sees them: split by {@code [\p{Punct}\s]+} with
+ * {@link String#split(String)} semantics and lowercased, packed into one char array with offsets.
+ * <p>
+ * Split is done by a hand-written scanner, ASCII words are lowercased in place, so {@link #reset(String)} of
+ * a reused instance doesn't allocate unless buffers have to grow or a word contains non-ASCII chars.
+ */
+public final class NormalizedWords {
+
+    private static final boolean[] DELIMITERS = new boolean[128];
+
+    static {
+        for (char c : "!\"#$%&'()*+,-./:;<=>?@[\\]^_`{|}~ \t\n\u000B\f\r".toCharArray()) {
+            DELIMITERS[c] = true;
+        }
+    }
+
+    private char[] chars = new char[32];
+    private int[] starts = new int[8];
+    private int count;
+    private int originalLength;
+
+    /**
+     * @return words of the string in arrays of exact size, for keeping them for a long time
+     */
+    public static NormalizedWords of(String str) {
+        final NormalizedWords words = new NormalizedWords().reset(str);
+        words.chars = Arrays.copyOf(words.chars, words.starts[words.count]);
+        words.starts = Arrays.copyOf(words.starts, words.count + 1);
+        return words;
+    }
+
+    /**
+     * Package-private: instances returned by {@link #of(String)} are shared, e.g. cached by
+     * {@link songbox.house.util.ArtistsTitle}, and must not change.
+     */
+    NormalizedWords reset(String str) {
+        count = 0;
+        originalLength = 0;
+        starts[0] = 0;
+
+        final int length = str.length();
+        if (length == 0 || !isDelimiter(str.charAt(0))) {
+            appendWords(str, 0, length);
+        } else {
+            // Split keeps leading empty word after leading delimiters, unless the whole string is delimiters
+            int from = 1;
+            while (from < length && isDelimiter(str.charAt(from))) {
+                from++;
+            }
+            if (from < length) {
+                append(str, 0, 0, true);
+                appendWords(str, from, length);
+            }
+        }
+        return this;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return sum of lengths of all words before lowercasing
+     */
+    public int originalLength() {
+        return originalLength;
+    }
+
+    public int wordLength(int index) {
+        return starts[index + 1] - starts[index];
+    }
+
+    public String word(int index) {
+        return new String(chars, starts[index], wordLength(index));
+    }
+
+    CharSlice word(int index, CharSlice slice) {
+        return slice.set(chars, starts[index], wordLength(index));
+    }
+
+    static boolean isDelimiter(char c) {
+        return c < DELIMITERS.length && DELIMITERS[c];
+    }
+
+    private void appendWords(String str, int from, int to) {
+        final boolean asciiLowerCase = isAsciiLowerCaseSafe(Locale.getDefault());
+        int i = from;
+        do {
+            final int start = i;
+            while (i < to && !isDelimiter(str.charAt(i))) {
+                i++;
+            }
+            append(str, start, i, asciiLowerCase);
+            while (i < to && isDelimiter(str.charAt(i))) {
+                i++;
+            }
+        } while (i < to);
+    }
+
+    private void append(String str, int from, int to, boolean asciiLowerCase) {
+        String lowerCased = null;
+        for (int i = from; i < to && asciiLowerCase; i++) {
+            asciiLowerCase = str.charAt(i) < 128;
+        }
+        if (!asciiLowerCase) {
+            // Same as String#toLowerCase of the split word, length may change for some chars
+            lowerCased = str.substring(from, to).toLowerCase();
+        }
+
+        final int wordLength = lowerCased == null ? to - from : lowerCased.length();
+        final int start = starts[count];
+        ensureCapacity(start + wordLength);
+        for (int i = 0; i < wordLength; i++) {
+            if (lowerCased == null) {
+                final char c = str.charAt(from + i);
+                chars[start + i] = c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+            } else {
+                chars[start + i] = lowerCased.charAt(i);
+            }
+        }
+        starts[++count] = start + wordLength;
+        originalLength += to - from;
+    }
+
+    private void ensureCapacity(int charsLength) {
+        if (chars.length < charsLength) {
+            char[] newChars = new char[Math.max(charsLength, chars.length * 2)];
+            System.arraycopy(chars, 0, newChars, 0, starts[count]);
+            chars = newChars;
+        }
+        if (starts.length < count + 2) {
+            int[] newStarts = new int[starts.length * 2];
+            System.arraycopy(starts, 0, newStarts, 0, count + 1);
+            starts = newStarts;
+        }
+    }
+
+    private static boolean isAsciiLowerCaseSafe(Locale locale) {
+        // String#toLowerCase has special rules for 'I' in these languages
+        final String language = locale.getLanguage();
+        return !"tr".equals(language) && !"az".equals(language) && !"lt".equals(language);
+    }
+}
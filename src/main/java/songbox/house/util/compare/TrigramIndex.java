@@ -0,0 +1,289 @@
+package songbox.house.util.compare;
+
+import songbox.house.util.ArtistsTitle;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static java.util.Objects.nonNull;
+
+/**
+ * In-memory trigram index over {@link ArtistsTitle} entries for fuzzy lookups in a big local catalog. Entries are
+ * normalized the same way as {@link LevenshteinDistanceComparator} does, every word padded with spaces is split into
+ * trigrams. Posting lists are sorted int arrays of entry ids.
+ * <p>
+ * Lookup returns only entries which share enough trigrams with the query, those are re-ranked with
+ * {@link CompiledArtistsTitleQuery}. Shortest posting lists are merged first, longer ones are only probed with binary
+ * search for already found candidates, so frequent trigrams don't make lookup linear.
+ * <p>
+ * Removed entries are skipped immediately and purged from posting lists once they take a noticeable part of the
+ * index. Ids of entries never change. Thread-safe, lookups don't block each other.
+ */
+public final class TrigramIndex {
+
+    public static final double DEFAULT_MIN_SHARED_TRIGRAMS = 0.5;
+
+    private static final int MIN_PURGE_SIZE = 1024;
+    private static final ThreadLocal<NormalizedWords> WORDS = ThreadLocal.withInitial(NormalizedWords::new);
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final LongIntHashMap trigramToPosting = new LongIntHashMap(1 << 12);
+
+    private ArtistsTitle[] entries = new ArtistsTitle[1024];
+    private int nextId;
+    private int live;
+    private int removed;
+    private int[][] postings = new int[1024][];
+    private int[] postingSizes = new int[1024];
+
+    public int add(ArtistsTitle entry) {
+        final long[] trigrams = trigrams(entry);
+        lock.writeLock().lock();
+        try {
+            final int id = nextId++;
+            if (id == entries.length) {
+                entries = Arrays.copyOf(entries, entries.length * 2);
+            }
+            entries[id] = entry;
+            live++;
+            for (long trigram : trigrams) {
+                append(trigram, id);
+            }
+            return id;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean remove(int id) {
+        lock.writeLock().lock();
+        try {
+            if (id < 0 || id >= nextId || entries[id] == null) {
+                return false;
+            }
+            entries[id] = null;
+            live--;
+            // Removed ids stay in posting lists until there are enough of them to be worth a pass over the index
+            if (++removed >= MIN_PURGE_SIZE && removed * 4 > live) {
+                purge();
+            }
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public ArtistsTitle get(int id) {
+        lock.readLock().lock();
+        try {
+            return id >= 0 && id < nextId ? entries[id] : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return live;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public List<ArtistsTitle> search(ArtistsTitle query, int limit) {
+        return search(query, DEFAULT_MIN_SHARED_TRIGRAMS, limit);
+    }
+
+    /**
+     * @param minSharedTrigrams part of query trigrams which candidate must contain, from 0 to 1
+     * @param limit             max number of returned entries
+     * @return the most similar entries by {@link ArtistTitleComparator}, the most similar first
+     */
+    public List<ArtistsTitle> search(ArtistsTitle query, double minSharedTrigrams, int limit) {
+        final CompiledArtistsTitleQuery compiledQuery = ArtistTitleComparator.compile(query);
+        final ArtistsTitle[] found;
+        lock.readLock().lock();
+        try {
+            final int[] ids = candidates(query, minSharedTrigrams);
+            found = new ArtistsTitle[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                found[i] = entries[ids[i]];
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        // Score and index are packed into one long, so sorting needs no boxing
+        final long[] ranked = new long[found.length];
+        for (int i = 0; i < found.length; i++) {
+            ranked[i] = (-(long) compiledQuery.score(found[i]) << 32) | i;
+        }
+        Arrays.sort(ranked);
+        final List<ArtistsTitle> result = new ArrayList<>(Math.min(limit, ranked.length));
+        for (int i = 0; i < ranked.length && i < limit; i++) {
+            result.add(found[(int) ranked[i]]);
+        }
+        return result;
+    }
+
+    /**
+     * @return sorted ids of entries which contain at least {@code minSharedTrigrams} part of query trigrams
+     */
+    public int[] candidates(ArtistsTitle query, double minSharedTrigrams) {
+        final long[] trigrams = trigrams(query);
+        lock.readLock().lock();
+        try {
+            return candidates(trigrams, minSharedTrigrams);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private int[] candidates(long[] trigrams, double minSharedTrigrams) {
+        final int minShared = Math.max(1, (int) Math.ceil(trigrams.length * minSharedTrigrams));
+        if (trigrams.length < minShared) {
+            return new int[0];
+        }
+
+        final int[] lists = new int[trigrams.length];
+        int listCount = 0;
+        for (long trigram : trigrams) {
+            final int posting = trigramToPosting.get(trigram);
+            if (posting != LongIntHashMap.NO_VALUE && postingSizes[posting] > 0) {
+                lists[listCount++] = posting;
+            }
+        }
+        if (listCount < minShared) {
+            return new int[0];
+        }
+        sortBySize(lists, listCount);
+
+        // Entry missing in all shortest (listCount - minShared + 1) lists can't have minShared trigrams
+        final int prefix = listCount - minShared + 1;
+        int total = 0;
+        for (int i = 0; i < prefix; i++) {
+            total += postingSizes[lists[i]];
+        }
+        final int[] merged = new int[total];
+        int position = 0;
+        for (int i = 0; i < prefix; i++) {
+            System.arraycopy(postings[lists[i]], 0, merged, position, postingSizes[lists[i]]);
+            position += postingSizes[lists[i]];
+        }
+        Arrays.sort(merged);
+
+        int found = 0;
+        for (int start = 0; start < total; ) {
+            final int id = merged[start];
+            int end = start + 1;
+            while (end < total && merged[end] == id) {
+                end++;
+            }
+            int shared = end - start;
+            for (int i = prefix; i < listCount && shared < minShared && shared + listCount - i >= minShared; i++) {
+                if (Arrays.binarySearch(postings[lists[i]], 0, postingSizes[lists[i]], id) >= 0) {
+                    shared++;
+                }
+            }
+            if (shared >= minShared && entries[id] != null) {
+                merged[found++] = id;
+            }
+            start = end;
+        }
+        return Arrays.copyOf(merged, found);
+    }
+
+    private void sortBySize(int[] lists, int count) {
+        for (int i = 1; i < count; i++) {
+            final int list = lists[i];
+            int j = i - 1;
+            while (j >= 0 && postingSizes[lists[j]] > postingSizes[list]) {
+                lists[j + 1] = lists[j];
+                j--;
+            }
+            lists[j + 1] = list;
+        }
+    }
+
+    private void append(long trigram, int id) {
+        int posting = trigramToPosting.get(trigram);
+        if (posting == LongIntHashMap.NO_VALUE) {
+            posting = trigramToPosting.size();
+            trigramToPosting.put(trigram, posting);
+            if (posting == postings.length) {
+                postings = Arrays.copyOf(postings, postings.length * 2);
+                postingSizes = Arrays.copyOf(postingSizes, postingSizes.length * 2);
+            }
+            postings[posting] = new int[4];
+        }
+        int[] ids = postings[posting];
+        final int size = postingSizes[posting];
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size + (size >> 1) + 1);
+            postings[posting] = ids;
+        }
+        ids[size] = id;
+        postingSizes[posting] = size + 1;
+    }
+
+    private void purge() {
+        for (int posting = 0; posting < trigramToPosting.size(); posting++) {
+            final int[] ids = postings[posting];
+            int size = 0;
+            for (int i = 0; i < postingSizes[posting]; i++) {
+                if (entries[ids[i]] != null) {
+                    ids[size++] = ids[i];
+                }
+            }
+            postingSizes[posting] = size;
+            if (size < ids.length / 2) {
+                postings[posting] = Arrays.copyOf(ids, size);
+            }
+        }
+        removed = 0;
+    }
+
+    /**
+     * @return sorted distinct trigrams of all words of artists and title, three chars packed into a long
+     */
+    static long[] trigrams(ArtistsTitle artistsTitle) {
+        final NormalizedWords words = WORDS.get();
+        long[] trigrams = new long[16];
+        int count = 0;
+        for (String part : new String[]{artistsTitle.getArtists(), artistsTitle.getTitle()}) {
+            if (nonNull(part)) {
+                words.reset(part);
+                for (int i = 0; i < words.size(); i++) {
+                    final String word = words.word(i);
+                    if (word.isEmpty()) {
+                        continue;
+                    }
+                    if (count + word.length() > trigrams.length) {
+                        trigrams = Arrays.copyOf(trigrams, Math.max(trigrams.length * 2, count + word.length()));
+                    }
+                    // Word is padded with spaces: " ab" and "ab " trigrams let short words and word edges match
+                    char first = ' ';
+                    char second = word.charAt(0);
+                    for (int j = 1; j <= word.length(); j++) {
+                        final char third = j < word.length() ? word.charAt(j) : ' ';
+                        trigrams[count++] = ((long) first << 32) | ((long) second << 16) | third;
+                        first = second;
+                        second = third;
+                    }
+                }
+            }
+        }
+        Arrays.sort(trigrams, 0, count);
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (distinct == 0 || trigrams[distinct - 1] != trigrams[i]) {
+                trigrams[distinct++] = trigrams[i];
+            }
+        }
+        return Arrays.copyOf(trigrams, distinct);
+    }
+}
@@ -0,0 +1,163 @@
+package songbox.house.util.compare;
+
+/**
+ * Word prepared for Myers' bit-parallel edit distance. Words up to 64 chars are encoded as per-character
+ * bitmasks, so distance to any text is computed in O(text length) without allocations. Longer words fall back
+ * to {@link EditDistance#rolling(CharSequence, CharSequence)}.
+ * <p>
+ * Instance is mutable through {@link #set(CharSequence)}, but {@link #distance(CharSequence)} is read-only, so
+ * a pattern that is not changed anymore can be shared between threads.
+ */
+public final class WordPattern {
+
+    public static final int MAX_BIT_PARALLEL_LENGTH = Long.SIZE;
+
+    private static final int ASCII_SIZE = 128;
+
+    private final long[] asciiMasks = new long[ASCII_SIZE];
+    private final char[] otherChars = new char[MAX_BIT_PARALLEL_LENGTH];
+    private final long[] otherMasks = new long[MAX_BIT_PARALLEL_LENGTH];
+    private final CharSlice word = new CharSlice();
+    private char[] chars = new char[MAX_BIT_PARALLEL_LENGTH];
+    private int otherCount;
+
+    public WordPattern() {
+    }
+
+    public WordPattern(CharSequence word) {
+        set(word);
+    }
+
+    /**
+     * Copies the word, so slices of reused buffers can be passed here.
+     */
+    public WordPattern set(CharSequence word) {
+        clear();
+        final int length = word.length();
+        if (chars.length < length) {
+            chars = new char[length];
+        }
+        for (int i = 0; i < length; i++) {
+            chars[i] = word.charAt(i);
+        }
+        this.word.set(chars, 0, length);
+        if (isBitParallel()) {
+            for (int i = 0; i < length; i++) {
+                final char c = chars[i];
+                final long bit = 1L << i;
+                if (c < ASCII_SIZE) {
+                    asciiMasks[c] |= bit;
+                } else {
+                    addOther(c, bit);
+                }
+            }
+        }
+        return this;
+    }
+
+    public int length() {
+        return word.length();
+    }
+
+    public boolean isBitParallel() {
+        return word.length() <= MAX_BIT_PARALLEL_LENGTH;
+    }
+
+    /**
+     * @param text text to compare with, expected to be normalized the same way as the pattern word
+     * @return minimum number of insertions, deletions or substitutions to change pattern word into the text
+     */
+    public int distance(CharSequence text) {
+        if (!isBitParallel() && text.length() > 0) {
+            return EditDistance.rolling(word, text);
+        }
+        return distance(text, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Distance with cutoff: stops as soon as it's clear that distance is greater than {@code maxDistance}.
+     *
+     * @param text        text to compare with, expected to be normalized the same way as the pattern word
+     * @param maxDistance max distance of interest
+     * @return exact distance if it isn't greater than {@code maxDistance}, {@code maxDistance + 1} otherwise
+     */
+    public int distance(CharSequence text, int maxDistance) {
+        final int m = word.length();
+        final int n = text.length();
+        if (Math.abs(m - n) > maxDistance) {
+            return maxDistance + 1;
+        }
+        if (m == 0) {
+            return n;
+        }
+        if (n == 0) {
+            return m;
+        }
+        if (!isBitParallel()) {
+            return EditDistance.banded(word, text, maxDistance);
+        }
+
+        final long last = 1L << (m - 1);
+        long pv = -1L;
+        long mv = 0L;
+        int score = m;
+        for (int j = 0; j < n; j++) {
+            final long eq = mask(text.charAt(j));
+            final long xv = eq | mv;
+            final long xh = (((eq & pv) + pv) ^ pv) | eq;
+            long ph = mv | ~(xh | pv);
+            long mh = pv & xh;
+            if ((ph & last) != 0) {
+                score++;
+            } else if ((mh & last) != 0) {
+                score--;
+            }
+            // Each of the remaining chars can decrease the score at most by one
+            if (score - (n - j - 1) > maxDistance) {
+                return maxDistance + 1;
+            }
+            // First row of the matrix is 0..n, so horizontal delta always comes in as +1
+            ph = (ph << 1) | 1L;
+            mh <<= 1;
+            pv = mh | ~(xv | ph);
+            mv = ph & xv;
+        }
+        return score;
+    }
+
+    long mask(char c) {
+        if (c < ASCII_SIZE) {
+            return asciiMasks[c];
+        }
+        for (int i = 0; i < otherCount; i++) {
+            if (otherChars[i] == c) {
+                return otherMasks[i];
+            }
+        }
+        return 0L;
+    }
+
+    private void addOther(char c, long bit) {
+        for (int i = 0; i < otherCount; i++) {
+            if (otherChars[i] == c) {
+                otherMasks[i] |= bit;
+                return;
+            }
+        }
+        otherChars[otherCount] = c;
+        otherMasks[otherCount++] = bit;
+    }
+
+    private void clear() {
+        if (isBitParallel()) {
+            // Reset only entries touched by previous word, it's cheaper than filling whole table
+            for (int i = 0; i < word.length(); i++) {
+                final char c = chars[i];
+                if (c < ASCII_SIZE) {
+                    asciiMasks[c] = 0L;
+                }
+            }
+        }
+        otherCount = 0;
+    }
+}
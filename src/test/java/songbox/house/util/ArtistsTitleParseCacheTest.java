@@ -0,0 +1,94 @@
+package songbox.house.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ArtistsTitleParseCacheTest {
+
+    @Test
+    public void shouldReturnNewInstanceOfCachedParseResult() {
+        ArtistsTitleParseCache cache = new ArtistsTitleParseCache(100);
+
+        ArtistsTitle first = cache.parse("#12; Ivan Brody - Deep Inside");
+        ArtistsTitle second = cache.parse("#12; Ivan Brody - Deep Inside");
+
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(0.5, cache.getHitRate(), 0.);
+        assertNotSame(first, second);
+        assertEquals(ArtistsTitle.parse("#12; Ivan Brody - Deep Inside").toString(), second.toString());
+
+        second.setTitle("Changed");
+        assertEquals("Deep Inside", cache.parse("#12; Ivan Brody - Deep Inside").getTitle());
+    }
+
+    @Test
+    public void shouldInternArtists() {
+        ArtistsTitleParseCache cache = new ArtistsTitleParseCache(100);
+
+        ArtistsTitle first = cache.parse("Ivan Brody - Deep Inside");
+        ArtistsTitle second = cache.parse("Ivan Brody - Deep Inside (Original Mix)");
+
+        assertSame(first.getArtists(), second.getArtists());
+        assertSame(first.getArtists(), cache.internArtists(new String("Ivan Brody")));
+        assertNull(cache.parse("Deep").getArtists());
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsed() {
+        ArtistsTitleParseCache cache = new ArtistsTitleParseCache(16);
+
+        for (int i = 0; i < 1000; i++) {
+            cache.parse("Artist" + i + " - Title" + i);
+        }
+        assertTrue(cache.size() <= 16);
+
+        // Each segment keeps the last parsed entry
+        cache.parse("Artist999 - Title999");
+        assertEquals(1, cache.getHitCount());
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        cache.parse("Artist999 - Title999");
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void shouldKeepNoMoreThanMaxSize() {
+        for (int maxSize : new int[]{1, 5, 16, 17, 100}) {
+            ArtistsTitleParseCache cache = new ArtistsTitleParseCache(maxSize);
+
+            for (int i = 0; i < 2000; i++) {
+                cache.parse("Artist" + i + " - Title" + i);
+                assertTrue("maxSize " + maxSize, cache.size() <= maxSize);
+            }
+            // Every segment is full, none of its entries is lost to rounding
+            assertEquals(maxSize, cache.size());
+        }
+    }
+
+    @Test
+    public void shouldInternUntilCanonicalInstanceIsCollected() throws InterruptedException {
+        WeakInterner<String> interner = new WeakInterner<>();
+        String canonical = new String("Ivan Brody");
+
+        assertSame(canonical, interner.intern(canonical));
+        assertSame(canonical, interner.intern(new String("Ivan Brody")));
+        assertNull(interner.intern(null));
+        assertEquals(1, interner.size());
+
+        canonical = null;
+        for (int i = 0; i < 50 && interner.size() > 0; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertEquals(0, interner.size());
+        String next = new String("Ivan Brody");
+        assertSame(next, interner.intern(next));
+    }
+}
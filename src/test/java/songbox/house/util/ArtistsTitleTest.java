@@ -0,0 +1,173 @@
+package songbox.house.util;
+
+import org.junit.Test;
+import songbox.house.util.compare.ArtistTitleComparator;
+import songbox.house.util.compare.NormalizedWords;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.apache.logging.log4j.util.Strings.isNotBlank;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class ArtistsTitleTest {
+
+    // Implementation before the hand-written scanner
+    private static final Pattern ARTIST_TITLE_REGEX = Pattern.compile("^((\\W*\\s*)|(#\\d*;?.?))?" +
+            "(?<artists>[A-Z].*)(\\s*)( - )(\\s*)(?<title>.*)$");
+
+    private static final List<String> CORPUS = Arrays.asList(
+            "Ivan Brody - Deep Inside",
+            "Ivan Brody - Deep Inside (Original Mix)",
+            "Albert b2b Krab - Mr. Sun - Extended Mix",
+            "  Ivan Brody   -   Deep Inside  ",
+            "1. Ivan Brody - Deep Inside",
+            "#12; Ivan Brody - Deep Inside",
+            "#12;Ivan Brody - Deep Inside",
+            "#12 Ivan Brody - Deep Inside",
+            "#1A - B",
+            "#;A - B",
+            "#12;;A - B",
+            "#",
+            "-- Ivan Brody - Deep Inside",
+            "ivan brody - deep inside",
+            "ivan brody-deep inside",
+            "Ivan Brody-Deep Inside",
+            "Ivan Brody - ",
+            "Ivan Brody -  ",
+            "Ivan - Brody -",
+            "Ivan\n - Deep",
+            "Ivan \n - Deep",
+            "Ivan\nBrody - Deep",
+            "Ivan - Deep\nInside",
+            "Ivan - \nDeep Inside",
+            "Ivan\u2028 - Deep",
+            "A - B\u0085",
+            "\u00c9ric - Title",
+            "_Ivan - Title",
+            "IvanBrody DeepInside",
+            " IvanBrody",
+            "Ivan Brody Deep",
+            "Ivan  Brody",
+            "Ivan Brody   ",
+            "Single",
+            "",
+            " ",
+            "  -  ",
+            "A -  - B",
+            "A - - B");
+
+    @Test
+    public void shouldParseSameAsRegexOnCorpus() {
+        for (String str : CORPUS) {
+            assertParsedSameAsRegex(str);
+        }
+    }
+
+    @Test
+    public void shouldParseSameAsRegexOnRandomStrings() {
+        String alphabet = "#;-  AaZ1_.\n\r\t\u0085\u00c9";
+        Random random = new Random(3);
+        for (int i = 0; i < 100_000; i++) {
+            StringBuilder sb = new StringBuilder();
+            int length = random.nextInt(12);
+            for (int j = 0; j < length; j++) {
+                sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            assertParsedSameAsRegex(sb.toString());
+        }
+    }
+
+    @Test
+    public void shouldParseAll() {
+        ArtistsTitle[] parsed = ArtistsTitle.parseAll(new CharSequence[]{
+                "Ivan Brody - Deep Inside", new StringBuilder("#3; Martin Dorn - Summer Sun")});
+        assertEquals("Ivan Brody - Deep Inside", parsed[0].toString());
+        assertEquals("Martin Dorn - Summer Sun", parsed[1].toString());
+    }
+
+    @Test
+    public void shouldCacheSameNormalizedWordsAsFreshNormalization() {
+        ArtistTitleComparator comparator = new ArtistTitleComparator();
+        ArtistsTitle query = ArtistsTitle.of("Ivan Brody", "Deep Inside");
+        for (String str : CORPUS) {
+            ArtistsTitle artistsTitle = ArtistsTitle.parse(str);
+            int score = comparator.compare(artistsTitle, query);
+
+            assertSameWords(artistsTitle.getArtists(), artistsTitle.normalizedArtists());
+            assertSameWords(artistsTitle.getTitle(), artistsTitle.normalizedTitle());
+            assertSame(artistsTitle.normalizedTitle(), artistsTitle.normalizedTitle());
+            assertEquals(str, comparator.compare(ArtistsTitle.parse(str), query), score);
+        }
+    }
+
+    @Test
+    public void shouldNormalizeAgainAfterSetters() {
+        ArtistTitleComparator comparator = new ArtistTitleComparator();
+        ArtistsTitle query = ArtistsTitle.of("Ivan Brody", "Deep Inside");
+        ArtistsTitle artistsTitle = ArtistsTitle.of("Martin Dorn", "Summer Sun");
+        int differentScore = comparator.compare(artistsTitle, query);
+
+        artistsTitle.setArtists("Ivan Brody");
+        artistsTitle.setTitle("Deep Inside");
+        assertSameWords("Ivan Brody", artistsTitle.normalizedArtists());
+        assertSameWords("Deep Inside", artistsTitle.normalizedTitle());
+        assertEquals(comparator.compare(query, query), comparator.compare(artistsTitle, query));
+        assertNotEquals(differentScore, comparator.compare(artistsTitle, query));
+
+        artistsTitle.setArtists(null);
+        assertNull(artistsTitle.normalizedArtists());
+    }
+
+    private static void assertParsedSameAsRegex(String str) {
+        ArtistsTitle expected = regexParse(str);
+        ArtistsTitle actual = ArtistsTitle.parse(str);
+        assertEquals("Artists of '" + str + "'", expected.getArtists(), actual.getArtists());
+        assertEquals("Title of '" + str + "'", expected.getTitle(), actual.getTitle());
+    }
+
+    private static void assertSameWords(String str, NormalizedWords cached) {
+        if (str == null) {
+            assertNull(cached);
+            return;
+        }
+        NormalizedWords fresh = NormalizedWords.of(str);
+        assertEquals(str, fresh.size(), cached.size());
+        assertEquals(str, fresh.originalLength(), cached.originalLength());
+        for (int i = 0; i < fresh.size(); i++) {
+            assertEquals(str, fresh.word(i), cached.word(i));
+        }
+    }
+
+    private static ArtistsTitle regexParse(String artistsTitleString) {
+        Matcher matcher = ARTIST_TITLE_REGEX.matcher(artistsTitleString);
+        if (matcher.matches()) {
+            String artists = matcher.group("artists");
+            String title = matcher.group("title");
+            if (isNotBlank(artists) && isNotBlank(title)) {
+                return ArtistsTitle.of(artists, title);
+            }
+        }
+
+        String[] artistTitle = artistsTitleString.split("-", 2);
+        String artists = null;
+        String title = artistsTitleString;
+        if (artistTitle.length == 2) {
+            artists = artistTitle[0].trim();
+            title = artistTitle[1].trim();
+        } else {
+            String[] splitedBySpace = artistsTitleString.split(" ");
+            if (splitedBySpace.length == 2) {
+                artists = splitedBySpace[0].trim();
+                title = splitedBySpace[1].trim();
+            }
+        }
+        return ArtistsTitle.of(artists, title);
+    }
+}
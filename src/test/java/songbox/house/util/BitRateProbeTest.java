@@ -0,0 +1,110 @@
+package songbox.house.util;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BitRateProbeTest {
+
+    // MPEG 1 layer III, 128 kbps, 44100 Hz, stereo
+    private static final byte[] HEADER_128 = {(byte) 0xFF, (byte) 0xFB, (byte) 0x90, 0x00};
+    // MPEG 1 layer III, 320 kbps, 44100 Hz, stereo
+    private static final byte[] HEADER_320 = {(byte) 0xFF, (byte) 0xFB, (byte) 0xE0, 0x00};
+    private static final int FRAME_128_LENGTH = 417;
+    private static final int FRAME_320_LENGTH = 1044;
+
+    @Test
+    public void shouldSkipId3Tag() {
+        ByteBuffer buffer = ByteBuffer.allocate(8 * 1024);
+        buffer.put(new byte[]{'I', 'D', '3', 4, 0, 0, 0, 0, 0x01, 0x10});
+        assertEquals(10 + 0x90, BitRateProbe.audioStart(buffer.array()));
+        assertEquals(0, BitRateProbe.audioStart(HEADER_128));
+    }
+
+    @Test
+    public void shouldReadCbrBitRateAndDurationFromLength() {
+        ByteBuffer buffer = ByteBuffer.allocate(8 * 1024);
+        buffer.put(new byte[]{0, 'x', (byte) 0xFF});
+        putFrames(buffer, HEADER_128, FRAME_128_LENGTH, 10);
+
+        Mp3Info info = BitRateProbe.parse(buffer.array(), 0, 4_800_000).get();
+        assertEquals(128, (short) info.getBitRate());
+        assertEquals(300, (int) info.getDurationSec());
+        assertEquals(44100, info.getSampleRate());
+        assertFalse(info.isVbr());
+
+        assertNull(BitRateProbe.parse(buffer.array(), 0, -1).get().getDurationSec());
+    }
+
+    @Test
+    public void shouldReadXingHeader() {
+        ByteBuffer buffer = ByteBuffer.allocate(8 * 1024);
+        buffer.put(HEADER_128).position(4 + 32);
+        buffer.put(new byte[]{'X', 'i', 'n', 'g'}).putInt(3).putInt(10_000).putInt(5_000_000);
+        buffer.position(FRAME_128_LENGTH);
+        putFrames(buffer, HEADER_320, FRAME_320_LENGTH, 5);
+
+        Mp3Info info = BitRateProbe.parse(buffer.array(), 0, -1).get();
+        assertTrue(info.isVbr());
+        assertEquals(261, (int) info.getDurationSec());
+        assertEquals(153, (short) info.getBitRate());
+    }
+
+    @Test
+    public void shouldNeedLengthForXingHeaderWithoutBytes() {
+        ByteBuffer buffer = ByteBuffer.allocate(8 * 1024);
+        buffer.put(HEADER_128).position(4 + 32);
+        buffer.put(new byte[]{'X', 'i', 'n', 'g'}).putInt(1).putInt(10_000);
+        buffer.position(FRAME_128_LENGTH);
+        putFrames(buffer, HEADER_320, FRAME_320_LENGTH, 5);
+
+        assertNull(BitRateProbe.parse(buffer.array(), 0, -1).get().getBitRate());
+        assertEquals(153, (short) BitRateProbe.parse(buffer.array(), 0, 5_000_000).get().getBitRate());
+    }
+
+    @Test
+    public void shouldReadVbriHeader() {
+        ByteBuffer buffer = ByteBuffer.allocate(8 * 1024);
+        buffer.put(HEADER_128).position(4 + 32);
+        buffer.put(new byte[]{'V', 'B', 'R', 'I'}).putShort((short) 1).putShort((short) 0).putShort((short) 75)
+                .putInt(5_000_000).putInt(10_000);
+        buffer.position(FRAME_128_LENGTH);
+        putFrames(buffer, HEADER_128, FRAME_128_LENGTH, 5);
+
+        Mp3Info info = BitRateProbe.parse(buffer.array(), 0, -1).get();
+        assertTrue(info.isVbr());
+        assertEquals(261, (int) info.getDurationSec());
+        assertEquals(153, (short) info.getBitRate());
+    }
+
+    @Test
+    public void shouldDetectVbrWithoutHeader() {
+        ByteBuffer buffer = ByteBuffer.allocate(8 * 1024);
+        putFrames(buffer, HEADER_128, FRAME_128_LENGTH, 2);
+        putFrames(buffer, HEADER_320, FRAME_320_LENGTH, 2);
+
+        Mp3Info info = BitRateProbe.parse(buffer.array(), 0, 4_800_000).get();
+        assertTrue(info.isVbr());
+        assertEquals(224, (short) info.getBitRate());
+        assertNull(info.getDurationSec());
+    }
+
+    @Test
+    public void shouldNotFindFrameInRandomBytes() {
+        assertFalse(BitRateProbe.parse(new byte[]{(byte) 0xFF, (byte) 0xFB, (byte) 0xF0, 0, 1, 2, 3}, 0, -1)
+                .isPresent());
+    }
+
+    private static void putFrames(ByteBuffer buffer, byte[] header, int length, int count) {
+        for (int i = 0; i < count; i++) {
+            int start = buffer.position();
+            buffer.put(header);
+            buffer.position(start + length);
+        }
+    }
+}
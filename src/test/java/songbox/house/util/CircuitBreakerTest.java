@@ -0,0 +1,126 @@
+package songbox.house.util;
+
+import org.junit.Test;
+import songbox.house.util.CircuitBreaker.State;
+
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CircuitBreakerTest {
+
+    @Test
+    public void shouldOpenWhenFailureRateIsOverThreshold() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 0.5, 10, 10_000, 10_000, 1);
+
+        for (int i = 0; i < 9; i++) {
+            assertTrue(breaker.tryAcquire());
+            breaker.onFailure();
+        }
+        // Not enough calls to decide
+        assertEquals(State.CLOSED, breaker.getState());
+
+        breaker.onSuccess();
+        breaker.onFailure();
+        assertEquals(State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire());
+    }
+
+    @Test
+    public void shouldStayClosedWhenFailuresAreRare() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 0.5, 10, 10_000, 10_000, 1);
+
+        for (int i = 0; i < 100; i++) {
+            breaker.onSuccess();
+            breaker.onSuccess();
+            breaker.onFailure();
+        }
+        assertEquals(State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void shouldCloseAfterSuccessfulTrialCalls() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("test", 0.5, 1, 10_000, 50, 2);
+        breaker.onFailure();
+        assertEquals(State.OPEN, breaker.getState());
+
+        Thread.sleep(100);
+        assertTrue(breaker.tryAcquire());
+        assertTrue(breaker.tryAcquire());
+        assertFalse(breaker.tryAcquire());
+        assertEquals(State.HALF_OPEN, breaker.getState());
+
+        breaker.onSuccess();
+        breaker.onSuccess();
+        assertEquals(State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void shouldReopenOnFailedTrialCall() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("test", 0.5, 1, 10_000, 50, 2);
+        breaker.onFailure();
+
+        Thread.sleep(100);
+        assertTrue(breaker.tryAcquire());
+        breaker.onFailure();
+        assertEquals(State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire());
+    }
+
+    @Test
+    public void shouldFailFastInRetryUtil() {
+        CircuitBreaker.register(new CircuitBreaker("breaker_test", 0.5, 2, 10_000, 60_000, 1));
+        AtomicInteger calls = new AtomicInteger();
+
+        for (int i = 0; i < 2; i++) {
+            Optional<Object> result = RetryUtil.getOptionalWithRetries(input -> {
+                calls.incrementAndGet();
+                return Optional.empty();
+            }, "input", 3, "breaker_test");
+            assertFalse(result.isPresent());
+        }
+        // One failure per call, not per attempt
+        assertEquals(6, calls.get());
+
+        try {
+            RetryUtil.executeWithRetryThrowingException(input -> calls.incrementAndGet(), "input", 3, 0,
+                    "breaker_test");
+            fail();
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof CircuitBreaker.OpenException);
+        }
+        assertEquals(6, calls.get());
+    }
+
+    @Test
+    public void shouldLookUpBreakerByItsKeyInsteadOfOperationName() {
+        CircuitBreaker.register(new CircuitBreaker("keyed_test@host", 0.5, 2, 10_000, 60_000, 1));
+        AtomicInteger calls = new AtomicInteger();
+
+        for (int i = 0; i < 3; i++) {
+            Optional<Object> result = RetryUtil.getOptionalWithRetries((input1, input2) -> {
+                calls.incrementAndGet();
+                return Optional.empty();
+            }, "input", "input", 3, "keyed_test", "keyed_test@host");
+            assertFalse(result.isPresent());
+        }
+        // The third call is stopped by the open breaker of the key
+        assertEquals(6, calls.get());
+        assertEquals(null, CircuitBreaker.getRegistered("keyed_test"));
+    }
+
+    @Test
+    public void shouldNotUseBreakerInRetryUtilUnlessRegistered() {
+        for (int i = 0; i < 3; i++) {
+            RetryUtil.getOptionalWithRetries(input -> Optional.empty(), "input", 10, "unregistered_test");
+        }
+
+        assertEquals(Optional.of(1), RetryUtil.getOptionalWithRetries(input -> Optional.of(1), "input", 1,
+                "unregistered_test"));
+        assertEquals(null, CircuitBreaker.getRegistered("unregistered_test"));
+    }
+}
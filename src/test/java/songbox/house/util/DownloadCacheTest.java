@@ -0,0 +1,148 @@
+package songbox.house.util;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DownloadCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldStoreSameContentOnce() throws Exception {
+        DownloadCache cache = new DownloadCache(folder.getRoot().toPath(), 1000);
+        cache.getOrFetch("first", file -> write(file, new byte[100]));
+        cache.getOrFetch("second", file -> write(file, new byte[100]));
+
+        assertEquals(2, cache.count());
+        assertEquals(100, cache.size());
+        assertEquals(100, cache.get("second").get().remaining());
+    }
+
+    @Test
+    public void shouldKeepContentPutAgainUnderSameKey() throws Exception {
+        DownloadCache cache = new DownloadCache(folder.getRoot().toPath(), 1000);
+        cache.getOrFetch("key", file -> write(file, body(100, 1)));
+        Path again = folder.newFile().toPath();
+        write(again, body(100, 1));
+
+        assertTrue(cache.put("key", again).isPresent());
+        assertArrayEquals(body(100, 1), bytes(cache.get("key").get()));
+        assertEquals(1, cache.count());
+        assertEquals(100, cache.size());
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsed() throws Exception {
+        DownloadCache cache = new DownloadCache(folder.getRoot().toPath(), 250);
+        cache.getOrFetch("first", file -> write(file, body(100, 1)));
+        cache.getOrFetch("second", file -> write(file, body(100, 2)));
+        cache.get("first");
+        cache.getOrFetch("third", file -> write(file, body(100, 3)));
+
+        assertTrue(cache.get("first").isPresent());
+        assertFalse(cache.get("second").isPresent());
+        assertTrue(cache.get("third").isPresent());
+        assertEquals(200, cache.size());
+    }
+
+    @Test
+    public void shouldLoadIndex() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        DownloadCache cache = new DownloadCache(directory, 1000);
+        cache.getOrFetch("first", file -> write(file, body(10, 1)));
+        cache.getOrFetch("second", file -> write(file, body(20, 2)));
+
+        DownloadCache loaded = new DownloadCache(directory, 1000);
+        assertEquals(2, loaded.count());
+        assertEquals(30, loaded.size());
+        assertArrayEquals(body(20, 2), bytes(loaded.get("second").get()));
+    }
+
+    @Test
+    public void shouldAppendChangesToJournalUntilFlush() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        DownloadCache cache = new DownloadCache(directory, 1000);
+        long emptyIndexSize = Files.size(directory.resolve("index.bin"));
+        cache.getOrFetch("first", file -> write(file, body(10, 1)));
+        cache.getOrFetch("second", file -> write(file, body(20, 2)));
+        cache.remove("first");
+
+        assertEquals(emptyIndexSize, Files.size(directory.resolve("index.bin")));
+        DownloadCache loaded = new DownloadCache(directory, 1000);
+        assertEquals(1, loaded.count());
+        assertEquals(20, loaded.size());
+        assertFalse(loaded.get("first").isPresent());
+
+        loaded.flush();
+        assertEquals(0, Files.size(directory.resolve("journal.bin")));
+        assertEquals(1, new DownloadCache(directory, 1000).count());
+    }
+
+    @Test
+    public void shouldFetchOnceForConcurrentCallers() throws Exception {
+        DownloadCache cache = new DownloadCache(folder.getRoot().toPath(), 1000);
+        AtomicInteger fetches = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Future<?>[] futures = new Future<?>[4];
+            for (int i = 0; i < futures.length; i++) {
+                futures[i] = executor.submit(() -> cache.getOrFetch("key", file -> {
+                    fetches.incrementAndGet();
+                    sleep();
+                    return write(file, body(10, 1));
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(1, fetches.get());
+    }
+
+    private static Optional<Long> write(Path file, byte[] body) {
+        try {
+            Files.write(file, body);
+            return Optional.of((long) body.length);
+        } catch (Exception e) {
+            return Optional.empty();
+        }
+    }
+
+    private static byte[] body(int length, int value) {
+        byte[] body = new byte[length];
+        body[0] = (byte) value;
+        return body;
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static void sleep() {
+        try {
+            Thread.sleep(200);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package songbox.house.util;
+
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DownloadJournalTest {
+
+    @Test
+    public void shouldSplitToSegments() {
+        DownloadJournal journal = new DownloadJournal("http://host/file", 10, "\"v1\"", null);
+        journal.split(3);
+
+        assertEquals(3, journal.getSegments().size());
+        assertEquals(0, journal.getSegments().get(0).getStart());
+        assertEquals(3, journal.getSegments().get(0).getEnd());
+        assertEquals(8, journal.getSegments().get(2).getStart());
+        assertEquals(9, journal.getSegments().get(2).getEnd());
+        assertFalse(journal.isComplete());
+
+        journal.getSegments().forEach(segment -> segment.setWritten(segment.getEnd() - segment.getStart() + 1));
+        assertTrue(journal.isComplete());
+    }
+
+    @Test
+    public void shouldSaveAndLoad() throws Exception {
+        Path path = Files.createTempFile("download", ".mp3");
+        Path journalPath = DownloadJournal.journalPath(path);
+        try {
+            DownloadJournal journal = new DownloadJournal("http://host/file", 100, null, "Mon, 01 Apr 2019 10:00:00 GMT");
+            journal.split(2);
+            journal.getSegments().get(1).setWritten(7);
+            journal.save(journalPath);
+
+            DownloadJournal loaded = DownloadJournal.load(journalPath).get();
+            assertEquals(journal, loaded);
+            assertTrue(journal.isSameResource(loaded));
+            assertEquals("Mon, 01 Apr 2019 10:00:00 GMT", loaded.getValidator());
+        } finally {
+            Files.deleteIfExists(journalPath);
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Test
+    public void shouldNotResumeChangedOrUnvalidatedResource() {
+        DownloadJournal journal = new DownloadJournal("http://host/file", 100, "\"v1\"", null);
+
+        assertFalse(journal.isSameResource(new DownloadJournal("http://host/file", 100, "\"v2\"", null)));
+        assertFalse(journal.isSameResource(new DownloadJournal("http://host/file", 101, "\"v1\"", null)));
+        assertFalse(new DownloadJournal("http://host/file", 100, null, null)
+                .isSameResource(new DownloadJournal("http://host/file", 100, null, null)));
+    }
+}
@@ -0,0 +1,74 @@
+package songbox.house.util;
+
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.URL;
+
+import static java.net.Proxy.Type.HTTP;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DownloadLimiterTest {
+
+    @Test
+    public void shouldWaitForFreeHostSlot() throws Exception {
+        DownloadLimiter limiter = new DownloadLimiter(1, DownloadLimiter.UNLIMITED, DownloadLimiter.UNLIMITED);
+        URL url = new URL("http://host/file");
+        DownloadLimiter.Permit permit = limiter.acquire(url, null);
+
+        Thread waiting = new Thread(() -> {
+            try {
+                // Acquired after the first permit is closed
+                limiter.acquire(url, null).close();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        waiting.start();
+        waiting.join(200);
+        assertTrue(waiting.isAlive());
+
+        // Other host isn't limited by this one
+        limiter.acquire(new URL("http://other/file"), null).close();
+
+        permit.close();
+        waiting.join(1000);
+        assertFalse(waiting.isAlive());
+    }
+
+    @Test
+    public void shouldLimitConnectionsThroughProxy() throws Exception {
+        DownloadLimiter limiter = new DownloadLimiter(DownloadLimiter.UNLIMITED, 1, DownloadLimiter.UNLIMITED);
+        Proxy proxy = new Proxy(HTTP, InetSocketAddress.createUnresolved("proxy", 8080));
+        DownloadLimiter.Permit permit = limiter.acquire(new URL("http://host/file"), proxy);
+
+        Thread waiting = new Thread(() -> {
+            try {
+                // Acquired after the first permit is closed
+                limiter.acquire(new URL("http://other/file"), proxy).close();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        waiting.start();
+        waiting.join(200);
+        assertTrue(waiting.isAlive());
+
+        permit.close();
+        waiting.join(1000);
+        assertFalse(waiting.isAlive());
+    }
+
+    @Test
+    public void shouldThrottleAfterBurst() throws Exception {
+        DownloadLimiter limiter = new DownloadLimiter(DownloadLimiter.UNLIMITED, DownloadLimiter.UNLIMITED, 100_000);
+        long start = System.nanoTime();
+        limiter.throttle(100_000);
+        assertTrue(System.nanoTime() - start < 100_000_000L);
+
+        limiter.throttle(20_000);
+        assertTrue(System.nanoTime() - start >= 150_000_000L);
+    }
+}
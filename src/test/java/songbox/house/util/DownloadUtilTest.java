@@ -0,0 +1,284 @@
+package songbox.house.util;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.Optional.of;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DownloadUtilTest {
+
+    private static final byte[] DATA = new byte[3_000_000];
+
+    static {
+        new Random(5).nextBytes(DATA);
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicLong served = new AtomicLong();
+    private final List<String> ranges = new CopyOnWriteArrayList<>();
+    // Body of the request with this number, or of every request if -1, is cut off after cutAfter bytes
+    private volatile int cutRequest;
+    private volatile int cutAfter = -1;
+    private volatile boolean ignoreRange;
+    private volatile String etag = "\"v1\"";
+    // ETag changes to v2 once the request with this number is answered
+    private volatile int changeEtagAfter;
+
+    private ExecutorService serverExecutor;
+    private HttpServer server;
+    private String url;
+
+    @Before
+    public void init() throws IOException {
+        DownloadUtil.setCache(null);
+        DownloadUtil.setLimiter(DownloadLimiter.NONE);
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        serverExecutor = Executors.newFixedThreadPool(8);
+        server.setExecutor(serverExecutor);
+        server.createContext("/file", this::serve);
+        server.createContext("/empty", this::serveEmpty);
+        server.start();
+        url = "http://localhost:" + server.getAddress().getPort() + "/file";
+    }
+
+    @After
+    public void shutdown() {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    @Test
+    public void shouldResumeAfterCutOffBody() throws Exception {
+        cutRequest = 1;
+        cutAfter = 100_000;
+        Path path = folder.newFile().toPath();
+
+        assertEquals(of((long) DATA.length), DownloadUtil.downloadTo(url, path));
+
+        assertArrayEquals(DATA, Files.readAllBytes(path));
+        assertEquals(2, requests.get());
+        assertEquals(Arrays.asList("bytes=100000-"), ranges);
+        assertEquals(DATA.length - 100_000, served.get());
+    }
+
+    @Test
+    public void shouldSkipBytesBeforeRangeWhenServerIgnoresIt() throws Exception {
+        ignoreRange = true;
+
+        assertArrayEquals(Arrays.copyOfRange(DATA, 100, 200), DownloadUtil.downloadRange(url, null, 100, 199).get());
+
+        cutRequest = 2;
+        cutAfter = 100_000;
+        Path path = folder.newFile().toPath();
+        assertEquals(of((long) DATA.length), DownloadUtil.downloadTo(url, path));
+        assertArrayEquals(DATA, Files.readAllBytes(path));
+
+        // Nothing to split without ranges, the whole file is streamed after the probe
+        cutAfter = -1;
+        requests.set(0);
+        assertEquals(of((long) DATA.length), DownloadUtil.downloadSegmented(url, path, null, 4));
+        assertArrayEquals(DATA, Files.readAllBytes(path));
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    public void shouldWriteSegmentsToTheirOffsets() throws Exception {
+        Path path = folder.newFile().toPath();
+
+        assertEquals(of((long) DATA.length), DownloadUtil.downloadSegmented(url, path, null, 4));
+
+        assertArrayEquals(DATA, Files.readAllBytes(path));
+        assertEquals(5, requests.get());
+        assertEquals("bytes=0-0", ranges.get(0));
+        List<long[]> segments = new ArrayList<>();
+        for (String range : ranges.subList(1, ranges.size())) {
+            String[] bounds = range.substring("bytes=".length()).split("-");
+            segments.add(new long[]{Long.parseLong(bounds[0]), Long.parseLong(bounds[1])});
+        }
+        segments.sort((segment1, segment2) -> Long.compare(segment1[0], segment2[0]));
+        long next = 0;
+        for (long[] segment : segments) {
+            assertEquals(next, segment[0]);
+            next = segment[1] + 1;
+        }
+        assertEquals(DATA.length, next);
+        assertFalse(Files.exists(DownloadJournal.journalPath(path)));
+    }
+
+    @Test
+    public void shouldCreateEmptyFileWhenRangeOfEmptyFileIsNotSatisfiable() throws Exception {
+        Path path = folder.newFile().toPath();
+        Files.write(path, new byte[]{1, 2, 3});
+        String emptyUrl = url.replace("/file", "/empty");
+
+        assertEquals(of(0L), DownloadUtil.probeLength(emptyUrl, null));
+        assertEquals(of(0L), DownloadUtil.downloadSegmented(emptyUrl, path, null, 4));
+        assertEquals(0, Files.size(path));
+    }
+
+    @Test
+    public void shouldKeepThreadContextOfSegmentedDownloadCaller() throws Exception {
+        Path path = folder.newFile().toPath();
+
+        assertEquals(of((long) DATA.length), DownloadUtil.downloadSegmented(url, path, null, 4));
+
+        ThreadChangeAssertions.assertContextPropagated();
+    }
+
+    @Test
+    public void shouldResumeSegmentsFromJournal() throws Exception {
+        Path path = folder.newFile().toPath();
+        Path journalPath = DownloadJournal.journalPath(path);
+        cutRequest = -1;
+        cutAfter = 50_000;
+
+        assertFalse(DownloadUtil.downloadSegmented(url, path, null, 4).isPresent());
+        assertTrue(Files.exists(journalPath));
+
+        cutAfter = -1;
+        served.set(0);
+        assertEquals(of((long) DATA.length), DownloadUtil.downloadSegmented(url, path, null, 4));
+        assertArrayEquals(DATA, Files.readAllBytes(path));
+        assertFalse(Files.exists(journalPath));
+        // Every segment received at least its first cut off body before
+        assertTrue(served.get() <= DATA.length - 4 * 50_000);
+
+        // Bytes of another version of the file aren't reused
+        cutAfter = 50_000;
+        assertFalse(DownloadUtil.downloadSegmented(url, path, null, 4).isPresent());
+        cutAfter = -1;
+        etag = "\"v2\"";
+        served.set(0);
+        assertEquals(of((long) DATA.length), DownloadUtil.downloadSegmented(url, path, null, 4));
+        assertArrayEquals(DATA, Files.readAllBytes(path));
+        // And one byte of the probe
+        assertEquals(DATA.length + 1, served.get());
+    }
+
+    @Test
+    public void shouldRestartAtOnceWhenFileIsChangedDuringDownload() throws Exception {
+        Path path = folder.newFile().toPath();
+        // Range requests of segments don't match the probed version anymore and get the whole file
+        changeEtagAfter = 1;
+
+        assertEquals(of((long) DATA.length), DownloadUtil.downloadSegmented(url, path, null, 4));
+
+        assertArrayEquals(DATA, Files.readAllBytes(path));
+        // Probe and 4 segments of each version, without retries
+        assertEquals(10, requests.get());
+        assertFalse(Files.exists(DownloadJournal.journalPath(path)));
+    }
+
+    @Test
+    public void shouldStopRetriesWhenAsyncDownloadIsCancelled() throws Exception {
+        cutRequest = -1;
+        cutAfter = 1000;
+
+        CompletableFuture<Optional<byte[]>> download = DownloadUtil.downloadBytesAsync(url);
+        while (requests.get() == 0) {
+            Thread.sleep(10);
+        }
+        assertTrue(download.cancel(true));
+
+        // The attempt in progress may still finish, but no retry is scheduled after it
+        Thread.sleep(1000);
+        int afterCancel = requests.get();
+        Thread.sleep(2000);
+        assertEquals(afterCancel, requests.get());
+
+        // Cancelled download isn't shared with the next caller
+        cutAfter = -1;
+        assertArrayEquals(DATA, DownloadUtil.downloadBytesAsync(url).get(10, TimeUnit.SECONDS).get());
+    }
+
+    @Test
+    public void shouldKeepThreadContextOfAsyncDownloadCaller() throws Exception {
+        cutRequest = 1;
+        cutAfter = 1000;
+
+        // The second attempt is started by the retry timer
+        assertArrayEquals(DATA, DownloadUtil.downloadBytesAsync(url).get(10, TimeUnit.SECONDS).get());
+        assertEquals(2, requests.get());
+
+        ThreadChangeAssertions.assertContextPropagated();
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        final int request = requests.incrementAndGet();
+        final String range = exchange.getRequestHeaders().getFirst("Range");
+        final String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+        if (range != null) {
+            ranges.add(range);
+        }
+        int from = 0;
+        int to = DATA.length - 1;
+        final boolean partial = range != null && !ignoreRange && (ifRange == null || ifRange.equals(etag));
+        if (partial) {
+            final String[] bounds = range.substring("bytes=".length()).split("-", -1);
+            from = Integer.parseInt(bounds[0]);
+            to = bounds[1].isEmpty() ? to : Math.min(to, Integer.parseInt(bounds[1]));
+            exchange.getResponseHeaders().add("Content-Range", "bytes " + from + "-" + to + "/" + DATA.length);
+        }
+        exchange.getResponseHeaders().add("ETag", etag);
+        if (request == changeEtagAfter) {
+            etag = "\"v2\"";
+        }
+        final int length = to - from + 1;
+        exchange.sendResponseHeaders(partial ? 206 : 200, length);
+        final OutputStream body = exchange.getResponseBody();
+        try {
+            if (cutAfter >= 0 && (cutRequest == -1 || cutRequest == request)) {
+                body.write(DATA, from, Math.min(cutAfter, length));
+                body.flush();
+                // Closing before Content-Length bytes are sent drops the connection
+                exchange.close();
+                return;
+            }
+            body.write(DATA, from, length);
+            served.addAndGet(length);
+            body.close();
+        } catch (IOException e) {
+            exchange.close();
+        }
+    }
+
+    private void serveEmpty(HttpExchange exchange) throws IOException {
+        if (exchange.getRequestHeaders().getFirst("Range") != null) {
+            exchange.getResponseHeaders().add("Content-Range", "bytes */0");
+            exchange.sendResponseHeaders(416, -1);
+        } else {
+            exchange.sendResponseHeaders(200, -1);
+        }
+        exchange.close();
+    }
+}
@@ -0,0 +1,64 @@
+package songbox.house.util;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.lang.System.nanoTime;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HashedWheelTimerTest {
+
+    private final HashedWheelTimer timer = new HashedWheelTimer("test-timer", 5, 8);
+
+    @After
+    public void stop() {
+        timer.stop();
+    }
+
+    @Test
+    public void shouldRunAfterDelayLongerThanWheel() throws Exception {
+        CountDownLatch done = new CountDownLatch(1);
+        long start = nanoTime();
+
+        // 8 ticks of 5ms is 40ms per round
+        timer.schedule(done::countDown, 100, MILLISECONDS);
+
+        assertTrue(done.await(1, SECONDS));
+        assertTrue(NANOSECONDS.toMillis(nanoTime() - start) >= 100);
+    }
+
+    @Test
+    public void shouldNotRunCancelled() throws Exception {
+        AtomicInteger runs = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(1);
+
+        HashedWheelTimer.Timeout timeout = timer.schedule(runs::incrementAndGet, 20, MILLISECONDS);
+        assertTrue(timeout.cancel());
+        assertFalse(timeout.cancel());
+        timer.schedule(done::countDown, 50, MILLISECONDS);
+
+        assertTrue(done.await(1, SECONDS));
+        assertEquals(0, runs.get());
+        assertEquals(0, timer.pending());
+    }
+
+    @Test
+    public void shouldRunManyTasks() throws Exception {
+        int tasks = 10_000;
+        CountDownLatch done = new CountDownLatch(tasks);
+        for (int i = 0; i < tasks; i++) {
+            timer.schedule(done::countDown, i % 200, MILLISECONDS);
+        }
+
+        assertTrue(done.await(2, SECONDS));
+        assertEquals(0, timer.pending());
+    }
+}
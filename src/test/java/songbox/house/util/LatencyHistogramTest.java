@@ -0,0 +1,53 @@
+package songbox.house.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void shouldGivePercentilesWithinPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 100_000; value++) {
+            histogram.record(value * 1000);
+        }
+
+        assertEquals(100_000, histogram.getTotalCount());
+        assertEquals(100_000_000, histogram.getMax());
+        assertClose(50_000_000, histogram.getValueAtPercentile(50));
+        assertClose(99_000_000, histogram.getValueAtPercentile(99));
+        assertEquals(100_000_000, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void shouldMapEveryValueToItsBucket() {
+        for (long value : new long[]{0, 1, 31, 32, 63, 64, 1000, 123_456_789, Long.MAX_VALUE}) {
+            int index = LatencyHistogram.index(value);
+            assertTrue(LatencyHistogram.highestValue(index) >= value);
+            assertTrue(index == 0 || LatencyHistogram.highestValue(index - 1) < value);
+        }
+    }
+
+    @Test
+    public void shouldDrainToTarget() {
+        LatencyHistogram source = new LatencyHistogram();
+        LatencyHistogram target = new LatencyHistogram();
+        source.record(10);
+        source.record(20);
+        target.record(5);
+
+        source.drainTo(target);
+
+        assertEquals(0, source.getTotalCount());
+        assertEquals(0, source.getValueAtPercentile(50));
+        assertEquals(3, target.getTotalCount());
+        assertEquals(20, target.getMax());
+        assertEquals(10, target.getValueAtPercentile(50));
+    }
+
+    private static void assertClose(long expected, long actual) {
+        assertTrue(actual + " is not close to " + expected, Math.abs(actual - expected) <= expected * 0.04);
+    }
+}
@@ -0,0 +1,73 @@
+package songbox.house.util;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static java.util.Collections.emptyList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class PerformanceLoggingAspectTest {
+
+    private PerformanceLoggingAspect aspect;
+    private ProceedingJoinPoint joinPoint;
+
+    @Before
+    public void setUp() throws Exception {
+        aspect = new PerformanceLoggingAspect(3600, 0);
+        MethodSignature signature = mock(MethodSignature.class);
+        when(signature.getMethod()).thenReturn(String.class.getMethod("length"));
+        when(signature.toShortString()).thenReturn("String.length()");
+        joinPoint = mock(ProceedingJoinPoint.class);
+        when(joinPoint.getSignature()).thenReturn(signature);
+    }
+
+    @After
+    public void tearDown() {
+        aspect.destroy();
+    }
+
+    @Test
+    public void shouldPublishSummaryOfCalls() throws Throwable {
+        when(joinPoint.proceed()).thenReturn("result");
+        for (int i = 0; i < 100; i++) {
+            assertEquals("result", aspect.profile(joinPoint));
+        }
+
+        List<PerformanceLoggingAspect.Summary> summaries = aspect.publish();
+
+        assertEquals(1, summaries.size());
+        PerformanceLoggingAspect.Summary summary = summaries.get(0);
+        assertEquals("String.length()", summary.getSignature());
+        assertEquals(100, summary.getCount());
+        assertEquals(0, summary.getErrors());
+        assertTrue(summary.getP50Nanos() <= summary.getP99Nanos());
+        assertTrue(summary.getP99Nanos() <= summary.getMaxNanos());
+        // Nothing new since the previous publish
+        assertEquals(emptyList(), aspect.publish());
+    }
+
+    @Test
+    public void shouldCountErrorsAndRethrow() throws Throwable {
+        when(joinPoint.proceed()).thenThrow(new IllegalStateException("failed"));
+        try {
+            aspect.profile(joinPoint);
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("failed", e.getMessage());
+        }
+
+        List<PerformanceLoggingAspect.Summary> summaries = aspect.publish();
+
+        assertEquals(1, summaries.get(0).getCount());
+        assertEquals(1, summaries.get(0).getErrors());
+    }
+}
@@ -0,0 +1,93 @@
+package songbox.house.util;
+
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.Arrays;
+import java.util.Optional;
+
+import static java.net.Proxy.Type.HTTP;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static songbox.house.util.RetryUtil.getOptionalWithProxyRetries;
+
+public class ProxyPoolTest {
+
+    private static final Proxy FIRST = proxy(1);
+    private static final Proxy SECOND = proxy(2);
+    private static final Proxy THIRD = proxy(3);
+
+    @Test
+    public void shouldSelectAnotherProxyThanPrevious() {
+        ProxyPool pool = new ProxyPool(Arrays.asList(FIRST, SECOND));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(SECOND, pool.select(FIRST));
+            assertEquals(FIRST, pool.select(SECOND));
+        }
+    }
+
+    @Test
+    public void shouldQuarantineFailingProxy() {
+        ProxyPool pool = new ProxyPool(Arrays.asList(FIRST, SECOND, THIRD), ProxyPool.Selection.WEIGHTED_RANDOM, 2,
+                60_000);
+        pool.failure(FIRST);
+        assertFalse(pool.getHealth().get(FIRST).isQuarantined());
+        pool.failure(FIRST);
+        assertTrue(pool.getHealth().get(FIRST).isQuarantined());
+
+        for (int i = 0; i < 100; i++) {
+            assertNotEquals(FIRST, pool.select());
+        }
+    }
+
+    @Test
+    public void shouldReturnQuarantinedProxyAfterCooldown() throws Exception {
+        ProxyPool pool = new ProxyPool(Arrays.asList(FIRST, SECOND), ProxyPool.Selection.LOWEST_LATENCY, 1, 50);
+        pool.failure(FIRST);
+        assertEquals(SECOND, pool.select());
+
+        Thread.sleep(100);
+        assertFalse(pool.getHealth().get(FIRST).isQuarantined());
+        assertEquals(FIRST, pool.select(SECOND));
+    }
+
+    @Test
+    public void shouldSelectLowestLatency() {
+        ProxyPool pool = new ProxyPool(Arrays.asList(FIRST, SECOND, THIRD), ProxyPool.Selection.LOWEST_LATENCY, 3,
+                60_000);
+        pool.success(FIRST, 300);
+        pool.success(SECOND, 100);
+        pool.success(THIRD, 200);
+
+        assertEquals(SECOND, pool.select());
+        assertEquals(THIRD, pool.select(SECOND));
+    }
+
+    @Test
+    public void shouldNotPreferNotMeasuredOrFailingProxy() {
+        ProxyPool pool = new ProxyPool(Arrays.asList(FIRST, SECOND, THIRD), ProxyPool.Selection.LOWEST_LATENCY, 3,
+                60_000);
+        pool.success(FIRST, 100);
+        pool.success(SECOND, 300);
+        pool.failure(THIRD);
+
+        assertEquals(FIRST, pool.select());
+        assertEquals(SECOND, pool.select(FIRST));
+    }
+
+    @Test
+    public void shouldRetryThroughAnotherProxy() {
+        ProxyPool pool = new ProxyPool(Arrays.asList(FIRST, SECOND));
+        Optional<Proxy> result = getOptionalWithProxyRetries((input, proxy) -> SECOND.equals(proxy)
+                ? Optional.of(proxy) : Optional.empty(), "input", pool, 2, "test");
+
+        assertEquals(Optional.of(SECOND), result);
+    }
+
+    private static Proxy proxy(int port) {
+        return new Proxy(HTTP, InetSocketAddress.createUnresolved("proxy", port));
+    }
+}
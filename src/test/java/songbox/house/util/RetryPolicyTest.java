@@ -0,0 +1,218 @@
+package songbox.house.util;
+
+import org.junit.Test;
+import songbox.house.util.RetryPolicy.Jitter;
+
+import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Optional.empty;
+import static java.util.Optional.of;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static songbox.house.util.RetryPolicy.exponentialDelay;
+import static songbox.house.util.RetryPolicy.fixedDelay;
+
+public class RetryPolicyTest {
+
+    @Test
+    public void shouldGrowDelayExponentiallyUpToMax() {
+        RetryPolicy policy = RetryPolicy.builder()
+                .backoff(exponentialDelay(100, 2))
+                .maxDelayMs(500)
+                .jitter(Jitter.NONE)
+                .build();
+
+        assertEquals(100, policy.delayMs(1, 0));
+        assertEquals(200, policy.delayMs(2, 100));
+        assertEquals(400, policy.delayMs(3, 200));
+        assertEquals(500, policy.delayMs(4, 400));
+        assertEquals(500, policy.delayMs(100, 500));
+    }
+
+    @Test
+    public void shouldKeepJitteredDelayInBounds() {
+        RetryPolicy full = RetryPolicy.builder().backoff(exponentialDelay(100, 2)).jitter(Jitter.FULL).build();
+        RetryPolicy decorrelated = RetryPolicy.builder()
+                .backoff(exponentialDelay(100, 2))
+                .maxDelayMs(1000)
+                .jitter(Jitter.DECORRELATED)
+                .build();
+
+        long previous = 0;
+        for (int retry = 1; retry < 1000; retry++) {
+            long delay = full.delayMs(3, 0);
+            assertTrue(delay >= 0 && delay <= 400);
+
+            long next = decorrelated.delayMs(retry, previous);
+            assertTrue(next >= 100 && next <= 1000 && next <= Math.max(100, previous) * 3);
+            previous = next;
+        }
+    }
+
+    @Test
+    public void shouldRetryUntilPresent() {
+        AtomicInteger calls = new AtomicInteger();
+        RetryPolicy policy = RetryPolicy.builder().maxAttempts(5).backoff(fixedDelay(0)).build();
+
+        Optional<Integer> result = policy.getOptional(() -> calls.incrementAndGet() < 3 ? empty() : of(42), "test");
+
+        assertEquals(of(42), result);
+        assertEquals(3, calls.get());
+    }
+
+    @Test
+    public void shouldStopOnNotRetryableException() {
+        AtomicInteger calls = new AtomicInteger();
+        RetryPolicy policy = RetryPolicy.builder()
+                .backoff(fixedDelay(0))
+                .retryable(e -> e instanceof IOException)
+                .build();
+
+        try {
+            policy.execute(() -> {
+                calls.incrementAndGet();
+                throw new IllegalArgumentException("bad");
+            }, "test");
+            fail();
+        } catch (Exception e) {
+            assertEquals("bad", e.getMessage());
+        }
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void shouldStopAfterMaxElapsedTime() {
+        AtomicInteger calls = new AtomicInteger();
+        RetryPolicy policy = RetryPolicy.builder()
+                .backoff(fixedDelay(100))
+                .jitter(Jitter.NONE)
+                .maxElapsedMs(250)
+                .build();
+
+        assertFalse(policy.getOptional(() -> {
+            calls.incrementAndGet();
+            return empty();
+        }, "test").isPresent());
+        assertEquals(3, calls.get());
+    }
+
+    @Test
+    public void shouldLimitRetriesByBudget() {
+        RetryBudget budget = new RetryBudget(0.1, 2);
+        AtomicInteger calls = new AtomicInteger();
+        RetryPolicy policy = RetryPolicy.builder().maxAttempts(10).backoff(fixedDelay(0)).budget(budget).build();
+
+        policy.getOptional(() -> {
+            calls.incrementAndGet();
+            return empty();
+        }, "test");
+        // 2 tokens at start, 0.1 of the call isn't enough for the third retry
+        assertEquals(3, calls.get());
+
+        for (int i = 0; i < 10; i++) {
+            policy.getOptional(() -> of(1), "test");
+        }
+        assertEquals(1.0, budget.getTokens(), 0.001);
+    }
+
+    @Test
+    public void shouldRetryAsyncWithoutBlockingCaller() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        RetryPolicy policy = RetryPolicy.builder().maxAttempts(5).backoff(fixedDelay(20)).build();
+
+        CompletableFuture<Integer> result = policy.executeAsync(() -> {
+            CompletableFuture<Integer> attempt = new CompletableFuture<>();
+            if (calls.incrementAndGet() < 3) {
+                attempt.completeExceptionally(new IOException("failed"));
+            } else {
+                attempt.complete(42);
+            }
+            return attempt;
+        }, "test");
+
+        assertEquals(42, (int) result.get(1, SECONDS));
+        assertEquals(3, calls.get());
+    }
+
+    @Test
+    public void shouldStopAsyncRetriesOnCancel() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        RetryPolicy policy = RetryPolicy.builder().backoff(fixedDelay(100)).jitter(Jitter.NONE).build();
+
+        CompletableFuture<Optional<Integer>> result = policy.getOptionalAsync(() -> {
+            calls.incrementAndGet();
+            return completedFuture(empty());
+        }, "test");
+        result.cancel(true);
+        Thread.sleep(300);
+
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void shouldNotCountCancelledAttemptAsFailure() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CircuitBreaker breaker = new CircuitBreaker("test", 0.5, 1, 10_000, 10_000, 1);
+        RetryPolicy policy = RetryPolicy.builder().backoff(fixedDelay(0)).circuitBreaker(breaker).build();
+        CompletableFuture<Integer> attempt = new CompletableFuture<>();
+
+        CompletableFuture<Integer> cancelled = policy.executeAsync(() -> {
+            calls.incrementAndGet();
+            return attempt;
+        }, "test");
+        cancelled.cancel(true);
+        CompletableFuture<Integer> attemptCancelled = policy.executeAsync(() -> {
+            calls.incrementAndGet();
+            CompletableFuture<Integer> other = new CompletableFuture<>();
+            other.cancel(true);
+            return other;
+        }, "test");
+        Thread.sleep(100);
+
+        assertTrue(attempt.isCancelled());
+        assertTrue(attemptCancelled.isCancelled());
+        assertEquals(2, calls.get());
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void shouldFailAsyncWithLastException() throws Exception {
+        RetryPolicy policy = RetryPolicy.builder().maxAttempts(2).backoff(fixedDelay(0)).build();
+
+        CompletableFuture<Integer> result = policy.executeAsync(() -> {
+            CompletableFuture<Integer> attempt = new CompletableFuture<>();
+            attempt.completeExceptionally(new IOException("failed"));
+            return attempt;
+        }, "test");
+
+        try {
+            result.get(1, SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    @Test
+    public void shouldKeepLegacyAttemptsAndRethrow() {
+        AtomicInteger calls = new AtomicInteger();
+        try {
+            RetryUtil.executeWithRetryThrowingException(input -> {
+                calls.incrementAndGet();
+                throw new IllegalStateException(input);
+            }, "input", null, 2, 0);
+            fail();
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        assertEquals(3, calls.get());
+    }
+}
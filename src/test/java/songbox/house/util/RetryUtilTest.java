@@ -0,0 +1,101 @@
+package songbox.house.util;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.lang.System.nanoTime;
+import static java.util.Optional.empty;
+import static java.util.Optional.of;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RetryUtilTest {
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void shouldTakeFasterHedgeAndCancelSlowAttempt() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch interrupted = new CountDownLatch(1);
+        long start = nanoTime();
+
+        Optional<String> result = RetryUtil.getOptionalWithHedging(proxy -> {
+            if (calls.incrementAndGet() == 1) {
+                try {
+                    Thread.sleep(5000);
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+                return of("slow");
+            }
+            return of("fast");
+        }, null, 2, 50, "hedge_test", executor);
+
+        assertEquals(of("fast"), result);
+        assertEquals(2, calls.get());
+        assertTrue(NANOSECONDS.toMillis(nanoTime() - start) < 1000);
+        assertTrue(interrupted.await(1, SECONDS));
+    }
+
+    @Test
+    public void shouldCapHedges() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+
+        Optional<String> result = RetryUtil.getOptionalWithHedging(proxy -> {
+            calls.incrementAndGet();
+            try {
+                Thread.sleep(300);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return of("done");
+        }, null, 2, 20, "hedge_cap_test", executor);
+
+        assertEquals(of("done"), result);
+        assertEquals(3, calls.get());
+    }
+
+    @Test
+    public void shouldFailAfterAllAttemptsFailed() {
+        AtomicInteger calls = new AtomicInteger();
+
+        Optional<String> result = RetryUtil.getOptionalWithHedging(proxy -> {
+            calls.incrementAndGet();
+            return empty();
+        }, null, 2, 1000, "hedge_fail_test", executor);
+
+        assertFalse(result.isPresent());
+        assertEquals(3, calls.get());
+    }
+
+    @Test
+    public void shouldUsePercentileAsHedgeDelay() {
+        for (int i = 0; i < 30; i++) {
+            RetryUtil.getOptionalWithHedging(proxy -> {
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return of(1);
+            }, null, 0, 1000, "hedge_delay_test", executor);
+        }
+
+        long delay = RetryUtil.getHedgeDelayMs("hedge_delay_test", 1000);
+        assertTrue(String.valueOf(delay), delay >= 20 && delay < 200);
+    }
+}
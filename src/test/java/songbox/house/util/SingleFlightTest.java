@@ -0,0 +1,134 @@
+package songbox.house.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SingleFlightTest {
+
+    @Test
+    public void shouldCallOnceForConcurrentCallers() throws Exception {
+        SingleFlight<String, Integer> singleFlight = new SingleFlight<>();
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(() -> singleFlight.execute("key", () -> {
+                    calls.incrementAndGet();
+                    await(release);
+                    return 42;
+                })));
+            }
+            Thread.sleep(200);
+            release.countDown();
+            for (Future<Integer> future : futures) {
+                assertEquals(42, (int) future.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(1, calls.get());
+        assertEquals(0, singleFlight.size());
+    }
+
+    @Test
+    public void shouldCallAgainAfterCompletion() {
+        SingleFlight<String, Integer> singleFlight = new SingleFlight<>();
+        AtomicInteger calls = new AtomicInteger();
+
+        assertEquals(1, (int) singleFlight.execute("key", calls::incrementAndGet));
+        assertEquals(2, (int) singleFlight.execute("key", calls::incrementAndGet));
+    }
+
+    @Test
+    public void shouldForgetFailedCall() {
+        SingleFlight<String, Integer> singleFlight = new SingleFlight<>();
+        try {
+            singleFlight.execute("key", () -> {
+                throw new IllegalStateException("failed");
+            });
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("failed", e.getMessage());
+        }
+        assertEquals(0, singleFlight.size());
+        assertEquals(1, (int) singleFlight.execute("key", () -> 1));
+    }
+
+    @Test
+    public void shouldShareAsyncCall() throws Exception {
+        SingleFlight<String, Integer> singleFlight = new SingleFlight<>();
+        CompletableFuture<Integer> call = new CompletableFuture<>();
+        AtomicInteger calls = new AtomicInteger();
+
+        CompletableFuture<Integer> first = singleFlight.executeAsync("key", () -> {
+            calls.incrementAndGet();
+            return call;
+        });
+        CompletableFuture<Integer> second = singleFlight.executeAsync("key", () -> {
+            calls.incrementAndGet();
+            return call;
+        });
+        second.cancel(true);
+        call.complete(7);
+
+        assertEquals(7, (int) first.get());
+        assertEquals(1, calls.get());
+        assertEquals(0, singleFlight.size());
+    }
+
+    @Test
+    public void shouldCancelAsyncCallWhenAllCallersCancel() {
+        SingleFlight<String, Integer> singleFlight = new SingleFlight<>();
+        CompletableFuture<Integer> call = new CompletableFuture<>();
+
+        CompletableFuture<Integer> first = singleFlight.executeAsync("key", () -> call);
+        CompletableFuture<Integer> second = singleFlight.executeAsync("key", CompletableFuture::new);
+        first.cancel(true);
+        assertFalse(call.isCancelled());
+        second.cancel(true);
+
+        assertTrue(call.isCancelled());
+        assertEquals(0, singleFlight.size());
+    }
+
+    @Test
+    public void shouldCopyResultForJoinedCallersOnly() throws Exception {
+        SingleFlight<String, int[]> singleFlight = new SingleFlight<>();
+        CompletableFuture<int[]> call = new CompletableFuture<>();
+        int[] result = {1};
+
+        CompletableFuture<int[]> first = singleFlight.executeAsync("key", () -> call, int[]::clone);
+        CompletableFuture<int[]> second = singleFlight.executeAsync("key", () -> call, int[]::clone);
+        call.complete(result);
+
+        assertSame(result, first.get());
+        assertNotSame(result, second.get());
+        assertArrayEquals(result, second.get());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
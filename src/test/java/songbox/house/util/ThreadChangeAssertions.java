@@ -0,0 +1,57 @@
+package songbox.house.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.util.Objects.nonNull;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that tasks submitted by the calling thread still get its context, e.g. after the code under test used a
+ * pool of {@link ExecutorUtil} on this thread.
+ */
+public final class ThreadChangeAssertions {
+
+    private ThreadChangeAssertions() {
+    }
+
+    public static void assertContextPropagated() throws Exception {
+        final ThreadLocal<String> context = new ThreadLocal<>();
+        final Map<String, String> changes = new ConcurrentHashMap<>();
+        final ThreadChange.ThreadChangeListener listener = new ThreadChange.ThreadChangeListener() {
+            @Override
+            public void didChange(String changeUUID) {
+                context.set(changes.get(changeUUID));
+            }
+
+            @Override
+            public void willChange(String changeUUID) {
+                if (nonNull(context.get())) {
+                    changes.put(changeUUID, context.get());
+                }
+            }
+
+            @Override
+            public void finish(String changeUUID) {
+                context.remove();
+                changes.remove(changeUUID);
+            }
+        };
+
+        ThreadChange.addThreadChangeListener(listener);
+        final ExecutorService executor = ExecutorUtil.createExecutorService(1);
+        try {
+            context.set("caller");
+            final AtomicReference<String> seen = new AtomicReference<>();
+            executor.submit(() -> seen.set(context.get())).get(10, SECONDS);
+            assertEquals("Context of " + Thread.currentThread().getName(), "caller", seen.get());
+        } finally {
+            context.remove();
+            ThreadChange.removeThreadChangeListener(listener);
+            executor.shutdownNow();
+        }
+    }
+}
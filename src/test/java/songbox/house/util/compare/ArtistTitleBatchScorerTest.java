@@ -0,0 +1,100 @@
+package songbox.house.util.compare;
+
+import org.junit.Test;
+import songbox.house.util.ArtistsTitle;
+import songbox.house.util.ExecutorUtil;
+import songbox.house.util.ThreadChangeAssertions;
+
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class ArtistTitleBatchScorerTest {
+
+    private static final String[] WORDS = {"Ivan", "Brody", "Deep", "Inside", "Original", "Mix", "Albert", "Krab",
+            "Sun", "Mister", "Dorn", "Martin", "b2b", "Remix", "Ivab", "Brodi"};
+
+    private final ArtistsTitle query = ArtistsTitle.of("Ivan Brody", "Deep Inside (Original Mix)");
+    private final ArtistsTitle[] candidates = candidates(5000);
+
+    @Test
+    public void shouldScoreInParallelSameAsSequentially() throws Exception {
+        int[] expected = sequentialScores();
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            assertArrayEquals(expected, ArtistTitleBatchScorer.scoreAll(query, candidates, pool));
+            assertArrayEquals(expected, ArtistTitleBatchScorer.scoreAll(query, candidates, executor, 4));
+        } finally {
+            pool.shutdown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void shouldKeepThreadContextOfCallerOfExecutorUtilPool() throws Exception {
+        ExecutorService executor = ExecutorUtil.createExecutorService(4);
+        try {
+            assertArrayEquals(sequentialScores(), ArtistTitleBatchScorer.scoreAll(query, candidates, executor, 4));
+        } finally {
+            executor.shutdownNow();
+        }
+
+        ThreadChangeAssertions.assertContextPropagated();
+    }
+
+    @Test(timeout = 10_000)
+    public void shouldNotDeadlockWhenCalledFromSaturatedPool() throws Exception {
+        int[] expected = sequentialScores();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            // Both threads of the pool score batches on the same pool, no thread is left for chunks
+            CyclicBarrier bothStarted = new CyclicBarrier(2);
+            Callable<int[]> scoreAll = () -> {
+                bothStarted.await();
+                return ArtistTitleBatchScorer.scoreAll(query, candidates, executor, 2);
+            };
+            Future<int[]> first = executor.submit(scoreAll);
+            Future<int[]> second = executor.submit(scoreAll);
+
+            assertArrayEquals(expected, first.get(5, TimeUnit.SECONDS));
+            assertArrayEquals(expected, second.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private int[] sequentialScores() {
+        ArtistTitleComparator comparator = new ArtistTitleComparator();
+        int[] scores = new int[candidates.length];
+        for (int i = 0; i < candidates.length; i++) {
+            scores[i] = comparator.compare(candidates[i], query);
+        }
+        return scores;
+    }
+
+    private static ArtistsTitle[] candidates(int count) {
+        Random random = new Random(42);
+        ArtistsTitle[] candidates = new ArtistsTitle[count];
+        for (int i = 0; i < count; i++) {
+            candidates[i] = ArtistsTitle.of(words(random, 1 + random.nextInt(3)), words(random, random.nextInt(4)));
+        }
+        return candidates;
+    }
+
+    private static String words(Random random, int count) {
+        StringBuilder words = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            words.append(i == 0 ? "" : " ").append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return words.toString();
+    }
+}
@@ -0,0 +1,68 @@
+package songbox.house.util.compare;
+
+import org.junit.Test;
+import songbox.house.util.ArtistsTitle;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static songbox.house.util.compare.LevenshteinDistanceComparator.BELOW_THRESHOLD;
+
+public class ArtistTitleComparatorTest {
+
+    private final ArtistTitleComparator comparator = new ArtistTitleComparator();
+
+    @Test
+    public void shouldScoreAtLeastSameAsCompare() {
+        List<ArtistsTitle> values = Arrays.asList(
+                ArtistsTitle.of("Ivan Brody", "Deep Inside (Original Mix)"),
+                ArtistsTitle.of("Ival Brodsady", "Deep Inside"),
+                ArtistsTitle.of("Albert b2b Krab", "Mr. Sun"),
+                ArtistsTitle.of("Krab b2b Albert", "Mister Sun (Extended)"),
+                ArtistsTitle.of("Martin Dorn", null),
+                ArtistsTitle.of(null, "Deep Inside"),
+                ArtistsTitle.of("A", "Sun"),
+                ArtistsTitle.of("(Remix)", "---"),
+                ArtistsTitle.of("", ""),
+                ArtistsTitle.of("", "Sun"),
+                ArtistsTitle.of(null, null));
+
+        for (ArtistsTitle value : values) {
+            for (ArtistsTitle expected : values) {
+                int score = comparator.compare(value, expected);
+                for (int threshold = -120; threshold <= 110; threshold += 5) {
+                    assertScoreAtLeast(value, expected, score, threshold);
+                }
+                assertScoreAtLeast(value, expected, score, score);
+                assertScoreAtLeast(value, expected, score, score + 1);
+            }
+        }
+    }
+
+    private void assertScoreAtLeast(ArtistsTitle value, ArtistsTitle expected, int score, int threshold) {
+        int expectedResult = score >= threshold ? score : BELOW_THRESHOLD;
+        assertEquals(value + " / " + expected + " / " + threshold, expectedResult,
+                comparator.scoreAtLeast(value, expected, threshold));
+    }
+
+    @Test
+    public void shouldNotMistakeLowestScoreForBelowThreshold() {
+        LevenshteinDistanceComparator words = new LevenshteinDistanceComparator();
+
+        assertEquals(Integer.MIN_VALUE, words.compare("", "abc"));
+        assertNotEquals(BELOW_THRESHOLD, words.compareAtLeast("", "abc", Integer.MIN_VALUE));
+        assertEquals(Integer.MIN_VALUE, words.compareAtLeast("", "abc", Integer.MIN_VALUE));
+        assertEquals(BELOW_THRESHOLD, words.compareAtLeast("", "abc", 0));
+    }
+
+    @Test
+    public void shouldCheckThreshold() {
+        ArtistsTitle query = ArtistsTitle.of("Ivan Brody", "Deep Inside");
+        assertTrue(comparator.isAtLeast(ArtistsTitle.of("Ivan Brody", "Deep Inside (Original Mix)"), query, 70));
+        assertFalse(comparator.isAtLeast(ArtistsTitle.of("Martin Dorn", "Deep Inside"), query, 70));
+    }
+}
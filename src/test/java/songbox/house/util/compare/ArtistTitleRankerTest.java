@@ -0,0 +1,104 @@
+package songbox.house.util.compare;
+
+import org.junit.Test;
+import songbox.house.util.ArtistsTitle;
+import songbox.house.util.BitRateDuration;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static java.util.Collections.emptyList;
+import static org.junit.Assert.assertEquals;
+
+public class ArtistTitleRankerTest {
+
+    private static final String[] WORDS = {"Ivan", "Brody", "Deep", "Inside", "Mix", "Sun", "Brodi"};
+    private static final short[] BIT_RATES = {128, 192, 320};
+    private static final int[] DURATIONS = {200, 300};
+
+    private final ArtistsTitle query = ArtistsTitle.of("Ivan Brody", "Deep Inside");
+
+    @Test
+    public void shouldSelectSameTopAsFullSort() {
+        List<Song> songs = songs(2000);
+
+        for (int k : new int[]{1, 5, 50, 1999, 2000, 3000}) {
+            List<Song> expected = fullSort(songs);
+            expected = expected.subList(0, Math.min(k, expected.size()));
+
+            assertEquals("k = " + k, expected, ArtistTitleRanker.top(query, songs, k));
+            assertEquals("k = " + k, expected, ArtistTitleRanker.top(query, songs.stream(), Song::getArtistsTitle, k));
+        }
+    }
+
+    @Test
+    public void shouldKeepEqualCandidatesInEncounterOrder() {
+        List<Song> songs = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            songs.add(new Song("Ivan Brody", "Deep Inside", (short) 320, 300));
+        }
+
+        assertEquals(songs.subList(0, 3), ArtistTitleRanker.top(query, songs, Song::getArtistsTitle, 3));
+        assertEquals(emptyList(), ArtistTitleRanker.top(query, songs, Song::getArtistsTitle, 0));
+    }
+
+    private List<Song> fullSort(List<Song> songs) {
+        ArtistTitleComparator comparator = new ArtistTitleComparator();
+        Comparator<Song> byScore = Comparator.comparingInt(song -> comparator.compare(song, query));
+        List<Song> sorted = new ArrayList<>(songs);
+        // Stable, so equal candidates stay in encounter order
+        sorted.sort(byScore.thenComparing(new BitRateDurationComparator()).reversed());
+        return sorted;
+    }
+
+    private static List<Song> songs(int count) {
+        Random random = new Random(7);
+        List<Song> songs = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            short bitRate = BIT_RATES[random.nextInt(BIT_RATES.length)];
+            int durationSec = DURATIONS[random.nextInt(DURATIONS.length)];
+            songs.add(new Song(words(random, 1 + random.nextInt(2)), words(random, 2), bitRate, durationSec));
+        }
+        return songs;
+    }
+
+    private static String words(Random random, int count) {
+        StringBuilder words = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            words.append(i == 0 ? "" : " ").append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return words.toString();
+    }
+
+    private static final class Song extends ArtistsTitle implements BitRateDuration {
+        private final Short bitRate;
+        private final Integer durationSec;
+
+        private Song(String artists, String title, Short bitRate, Integer durationSec) {
+            super(artists, title);
+            this.bitRate = bitRate;
+            this.durationSec = durationSec;
+        }
+
+        ArtistsTitle getArtistsTitle() {
+            return this;
+        }
+
+        @Override
+        public Short getBitRate() {
+            return bitRate;
+        }
+
+        @Override
+        public Integer getDurationSec() {
+            return durationSec;
+        }
+
+        @Override
+        public String toString() {
+            return super.toString() + " " + bitRate + " " + durationSec;
+        }
+    }
+}
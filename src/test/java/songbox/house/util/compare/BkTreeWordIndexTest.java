@@ -0,0 +1,67 @@
+package songbox.house.util.compare;
+
+import org.junit.Test;
+import songbox.house.util.ArtistsTitle;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BkTreeWordIndexTest {
+
+    private static final String LETTERS = "abcdeo";
+
+    @Test
+    public void shouldFindSameWordsAsBruteForce() {
+        Random random = new Random(11);
+        BkTreeWordIndex index = new BkTreeWordIndex();
+        Set<String> catalog = new HashSet<>();
+        for (int i = 0; i < 3000; i++) {
+            String word = word(random);
+            index.addWords(word);
+            catalog.add(word);
+        }
+        assertEquals(catalog.size(), index.size());
+
+        for (int i = 0; i < 200; i++) {
+            String word = word(random);
+            for (int maxDistance = 0; maxDistance <= 3; maxDistance++) {
+                Set<String> expected = new HashSet<>();
+                for (String catalogWord : catalog) {
+                    if (EditDistance.distance(word, catalogWord) <= maxDistance) {
+                        expected.add(catalogWord);
+                    }
+                }
+
+                List<String> found = index.find(word, maxDistance);
+                assertEquals(word + " within " + maxDistance, expected, new HashSet<>(found));
+                assertEquals("No duplicates", expected.size(), found.size());
+            }
+        }
+    }
+
+    @Test
+    public void shouldFindNormalizedWordsOfAllQueryWords() {
+        BkTreeWordIndex index = new BkTreeWordIndex();
+        assertTrue(index.find("Ivan", 1).isEmpty());
+
+        index.add(ArtistsTitle.of("Ivan Brody", "Deep Inside"));
+        index.add(ArtistsTitle.of("Ivan", null));
+
+        assertEquals(4, index.size());
+        assertEquals(new HashSet<>(Arrays.asList("ivan", "brody")), new HashSet<>(index.find("Ivab Brodi", 1)));
+    }
+
+    private static String word(Random random) {
+        char[] word = new char[1 + random.nextInt(7)];
+        for (int i = 0; i < word.length; i++) {
+            word[i] = LETTERS.charAt(random.nextInt(LETTERS.length()));
+        }
+        return new String(word);
+    }
+}
@@ -0,0 +1,75 @@
+package songbox.house.util.compare;
+
+import org.junit.Test;
+import songbox.house.util.ArtistsTitle;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class CompiledQueryTest {
+
+    private static final String ALPHABET = "aAbBcC12 -.,()'&\u00e9\u00c9\u0130";
+
+    private final LevenshteinDistanceComparator comparator = new LevenshteinDistanceComparator();
+
+    @Test
+    public void shouldScoreSameAsRegexSplitComparing() {
+        Random random = new Random(7);
+        for (int i = 0; i < 3000; i++) {
+            String str = randomString(random);
+            String expected = randomString(random);
+            int score = regexCompare(str, expected);
+            assertEquals("'" + str + "' / '" + expected + "'", score, comparator.compare(str, expected));
+            assertEquals("'" + str + "' / '" + expected + "'", score,
+                    LevenshteinDistanceComparator.compile(expected).score(str));
+        }
+    }
+
+    @Test
+    public void shouldScoreAllSameAsArtistTitleComparator() {
+        ArtistsTitle query = ArtistsTitle.of("Ivan Brody", "Deep Inside (Original Mix)");
+        List<ArtistsTitle> candidates = Arrays.asList(
+                ArtistsTitle.of("Ivan Brody", "Deep Inside"),
+                ArtistsTitle.of("Ival Brodsady", "(Original Mix) Deep"),
+                ArtistsTitle.of(null, "Deep Inside"),
+                ArtistsTitle.of("Martin Dorn", null));
+
+        ArtistTitleComparator artistTitleComparator = new ArtistTitleComparator();
+        int[] expected = candidates.stream().mapToInt(c -> artistTitleComparator.compare(c, query)).toArray();
+
+        assertArrayEquals(expected, ArtistTitleComparator.compile(query).scoreAll(candidates));
+    }
+
+    private static String randomString(Random random) {
+        StringBuilder sb = new StringBuilder();
+        int length = random.nextInt(20);
+        for (int i = 0; i < length; i++) {
+            sb.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+        return sb.toString();
+    }
+
+    // Implementation before bit-parallel distance and hand-written split
+    private static int regexCompare(String str1, String expected) {
+        String[] words1 = str1.split("[\\p{Punct}\\s]+");
+        List<String> expectedWords = new ArrayList<>();
+        for (String word : expected.split("[\\p{Punct}\\s]+")) {
+            expectedWords.add(word.toLowerCase());
+        }
+        int maxDistance = 0;
+        int dist = 0;
+        for (String word : words1) {
+            dist += expectedWords.stream()
+                    .mapToInt(e -> EditDistance.rolling(word.toLowerCase(), e))
+                    .min()
+                    .orElse(0);
+            maxDistance += word.length();
+        }
+        return (int) ((1. - (float) dist / maxDistance) * 100);
+    }
+}
@@ -0,0 +1,70 @@
+package songbox.house.util.compare;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class EditDistanceTest {
+
+    private static final String ALPHABET = "abcde\u00e9\u00fc\u00df0 ";
+
+    @Test
+    public void shouldMatchFullMatrixDistance() {
+        Random random = new Random(42);
+        for (int i = 0; i < 5000; i++) {
+            String wordA = randomWord(random, random.nextInt(80));
+            String wordB = randomWord(random, random.nextInt(80));
+            assertEquals(wordA + " / " + wordB, matrixDistance(wordA, wordB), EditDistance.distance(wordA, wordB));
+            assertEquals(wordA + " / " + wordB, matrixDistance(wordA, wordB), new WordPattern(wordA).distance(wordB));
+        }
+    }
+
+    @Test
+    public void shouldCutOffDistanceGreaterThanMax() {
+        Random random = new Random(13);
+        for (int i = 0; i < 5000; i++) {
+            String wordA = randomWord(random, random.nextInt(100));
+            String wordB = randomWord(random, random.nextInt(100));
+            int maxDistance = random.nextInt(30);
+            int expected = Math.min(matrixDistance(wordA, wordB), maxDistance + 1);
+            assertEquals(wordA + " / " + wordB, expected, new WordPattern(wordA).distance(wordB, maxDistance));
+            assertEquals(wordA + " / " + wordB, expected, EditDistance.banded(wordA, wordB, maxDistance));
+        }
+    }
+
+    @Test
+    public void shouldReusePatternForDifferentWords() {
+        WordPattern pattern = new WordPattern();
+        assertEquals(1, pattern.set("brody").distance("brady"));
+        assertEquals(4, pattern.set("martin").distance("dorn"));
+        assertEquals(0, pattern.set("").distance(""));
+        assertEquals(3, pattern.set("\u00fc").distance("abc"));
+    }
+
+    private static String randomWord(Random random, int length) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            sb.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+        return sb.toString();
+    }
+
+    private static int matrixDistance(String wordA, String wordB) {
+        int[][] costs = new int[wordA.length() + 1][wordB.length() + 1];
+        for (int i = 0; i <= wordA.length(); i++) {
+            costs[i][0] = i;
+        }
+        for (int j = 0; j <= wordB.length(); j++) {
+            costs[0][j] = j;
+        }
+        for (int i = 0; i < wordA.length(); i++) {
+            for (int j = 0; j < wordB.length(); j++) {
+                int replaceCost = costs[i][j] + (wordA.charAt(i) == wordB.charAt(j) ? 0 : 1);
+                costs[i + 1][j + 1] = Math.min(replaceCost, Math.min(costs[i][j + 1], costs[i + 1][j]) + 1);
+            }
+        }
+        return costs[wordA.length()][wordB.length()];
+    }
+}
@@ -0,0 +1,51 @@
+package songbox.house.util.compare;
+
+import org.junit.Test;
+import songbox.house.util.ArtistsTitle;
+
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TrigramIndexTest {
+
+    @Test
+    public void shouldFindSimilarEntries() {
+        TrigramIndex index = new TrigramIndex();
+        index.add(ArtistsTitle.of("Ivan Brody", "Deep Inside"));
+        int martin = index.add(ArtistsTitle.of("Martin Dorn", "Summer Sun"));
+        index.add(ArtistsTitle.of("Albert b2b Krab", "Mr. Sun"));
+
+        List<ArtistsTitle> found = index.search(ArtistsTitle.of("Ivan Brodi", "Deep Insde"), 10);
+        assertEquals(1, found.size());
+        assertEquals("Ivan Brody - Deep Inside", found.get(0).toString());
+
+        found = index.search(ArtistsTitle.of("Martin Dorn", "Sun"), 0.3, 10);
+        assertEquals("Martin Dorn - Summer Sun", found.get(0).toString());
+
+        assertTrue(index.remove(martin));
+        assertFalse(index.remove(martin));
+        assertEquals(2, index.size());
+        found = index.search(ArtistsTitle.of("Martin Dorn", "Sun"), 0.3, 10);
+        assertFalse(found.stream().anyMatch(entry -> entry.getArtists().equals("Martin Dorn")));
+    }
+
+    @Test
+    public void shouldPurgeRemovedEntries() {
+        TrigramIndex index = new TrigramIndex();
+        for (int i = 0; i < 5000; i++) {
+            index.add(ArtistsTitle.of("Artist" + i, "Title" + i));
+        }
+        for (int i = 0; i < 5000; i += 2) {
+            index.remove(i);
+        }
+
+        assertEquals(2500, index.size());
+        assertArrayEquals(new int[0], index.candidates(ArtistsTitle.of("Artist42", "Title42"), 1));
+        // "Artist4343 - Title4343" contains all trigrams of the query too
+        assertArrayEquals(new int[]{43, 4343}, index.candidates(ArtistsTitle.of("Artist43", "Title43"), 1));
+    }
+}